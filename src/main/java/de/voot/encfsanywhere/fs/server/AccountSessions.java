@@ -0,0 +1,96 @@
+/*
+  	Copyright (C) 2013 Marco Schulte
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.voot.encfsanywhere.fs.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+import de.voot.encfsanywhere.fs.shared.Files;
+import de.voot.encfsanywhere.fs.shared.MetadataCache;
+import de.voot.encfsanywhere.fs.shared.VolumeKeyCache;
+import de.voot.encfsanywhere.fs.shared.providers.FileProvider;
+
+/**
+ * Creates thread-safe {@link Files} sessions. All sessions of the same account
+ * share one {@link MetadataCache}, while unlocked volumes and decrypted names
+ * stay private to each session.
+ */
+public class AccountSessions {
+
+	private static final Logger LOG = Logger.getLogger("de.voot.encfsanywhere.fs.server.AccountSessions");
+
+	private final ConcurrentMap<String, MetadataCache> caches = new ConcurrentHashMap<String, MetadataCache>();
+	private final ConcurrentMapFactory mapFactory;
+
+	public AccountSessions() {
+		this(ConcurrentMapFactory.INSTANCE);
+	}
+
+	public AccountSessions(ConcurrentMapFactory mapFactory) {
+		this.mapFactory = mapFactory;
+	}
+
+	/**
+	 * @param accountId
+	 *            identifies the backend account, sessions with the same id
+	 *            share their metadata cache
+	 * @param provider
+	 *            provider of the new session
+	 * @return
+	 */
+	public Files newSession(String accountId, FileProvider provider) {
+		return newSession(accountId, provider, null);
+	}
+
+	/**
+	 * @param accountId
+	 * @param provider
+	 * @param keyCache
+	 *            derived volume keys of the user session, created with
+	 *            {@link #mapFactory()}. Must not be shared between users.
+	 * @return
+	 */
+	public Files newSession(String accountId, FileProvider provider, VolumeKeyCache keyCache) {
+		LOG.info("Creating session for account <" + accountId + ">");
+		return new Files(provider, cacheFor(accountId), mapFactory, keyCache);
+	}
+
+	public ConcurrentMapFactory mapFactory() {
+		return mapFactory;
+	}
+
+	/**
+	 * Drops the shared metadata of the given account, e.g. after it changed
+	 * outside of this server. The cache itself stays in place, so live
+	 * sessions and new ones keep sharing it; listings are fetched again on
+	 * their next use.
+	 * 
+	 * @param accountId
+	 */
+	public void invalidate(String accountId) {
+		MetadataCache cache = caches.get(accountId);
+		if (cache != null) {
+			LOG.info("Invalidating metadata of account <" + accountId + ">");
+			cache.clear();
+		}
+	}
+
+	private MetadataCache cacheFor(String accountId) {
+		return caches.computeIfAbsent(accountId, id -> new MetadataCache(mapFactory));
+	}
+}
@@ -0,0 +1,260 @@
+/*
+  	Copyright (C) 2013 Marco Schulte
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.voot.encfsanywhere.fs.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.logging.Logger;
+
+import com.google.gwt.core.client.Callback;
+
+import de.voot.encfsanywhere.fs.shared.Files;
+import de.voot.encfsanywhere.fs.shared.FolderUsage;
+import de.voot.encfsanywhere.fs.shared.MetadataCache;
+import de.voot.encfsanywhere.fs.shared.Path;
+import de.voot.encfsanywhere.fs.shared.providers.FileProvider;
+import de.voot.encfsgwt.shared.jre.InputStream;
+
+/**
+ * Exposes the callback based {@link Files} operations as
+ * {@link CompletableFuture}s for use on a JVM server.
+ *
+ * The wrapped {@link Files} must be thread-safe, i.e. built with a
+ * {@link ConcurrentMapFactory}. Futures are always completed on the given
+ * executor, never on the thread of the provider callback.
+ */
+public class AsyncFiles {
+
+	private static final Logger LOG = Logger.getLogger("de.voot.encfsanywhere.fs.server.AsyncFiles");
+
+	private interface FilesCall<T> {
+		void invoke(Files files, Callback<T, Exception> callback);
+	}
+
+	private final Files files;
+	private final Executor executor;
+
+	/**
+	 * Creates a session with its own metadata cache. Use
+	 * {@link AccountSessions} to share the cache between sessions.
+	 * 
+	 * @param provider
+	 *            provider of this session
+	 * @param executor
+	 *            executor used to complete futures and to read file contents,
+	 *            e.g. a virtual-thread-per-task executor
+	 */
+	public AsyncFiles(FileProvider provider, Executor executor) {
+		this(new Files(provider, new MetadataCache(ConcurrentMapFactory.INSTANCE), ConcurrentMapFactory.INSTANCE), executor);
+	}
+
+	/**
+	 * @param files
+	 *            thread-safe files, see {@link AccountSessions}
+	 * @param executor
+	 */
+	public AsyncFiles(Files files, Executor executor) {
+		this.files = files;
+		this.executor = executor;
+	}
+
+	public void disconnect() {
+		files.disconnect();
+	}
+
+	public String getName(Path path) {
+		return files.getName(path);
+	}
+
+	public long getSize(Path path) {
+		return files.getSize(path);
+	}
+
+	public long getLastModified(Path path) {
+		return files.getLastModified(path);
+	}
+
+	public boolean isDirectory(Path path) {
+		return files.isDirectory(path);
+	}
+
+	public FolderUsage getFolderUsage(Path path) {
+		return files.getFolderUsage(path);
+	}
+
+	public Boolean isEncFSRoot(Path path) {
+		return files.isEncFSRoot(path);
+	}
+
+	public boolean isEncFSRootUnlocked(Path path) {
+		return files.isEncFSRootUnlocked(path);
+	}
+
+	public CompletableFuture<Void> unlock(final Path encFSRoot, final String password) {
+		return call(new FilesCall<Void>() {
+			@Override
+			public void invoke(Files files, Callback<Void, Exception> callback) {
+				files.unlock(encFSRoot, password, callback);
+			}
+		});
+	}
+
+	/**
+	 * Unlocks with a cached key, see {@link Files#unlock(Path, Callback)}.
+	 * 
+	 * @param encFSRoot
+	 * @return
+	 */
+	public CompletableFuture<Void> unlock(final Path encFSRoot) {
+		return call(new FilesCall<Void>() {
+			@Override
+			public void invoke(Files files, Callback<Void, Exception> callback) {
+				files.unlock(encFSRoot, callback);
+			}
+		});
+	}
+
+	public CompletableFuture<Path> pathForName(final String path) {
+		return call(new FilesCall<Path>() {
+			@Override
+			public void invoke(Files files, Callback<Path, Exception> callback) {
+				files.pathForName(path, callback);
+			}
+		});
+	}
+
+	public CompletableFuture<Path[]> listFiles(final Path path) {
+		return call(new FilesCall<Path[]>() {
+			@Override
+			public void invoke(Files files, Callback<Path[], Exception> callback) {
+				files.listFiles(path, callback);
+			}
+		});
+	}
+
+	public CompletableFuture<InputStream> getFileContent(final Path path) {
+		return call(new FilesCall<InputStream>() {
+			@Override
+			public void invoke(Files files, Callback<InputStream, Exception> callback) {
+				files.getFileContent(path, callback);
+			}
+		});
+	}
+
+	/**
+	 * Loads and decrypts the whole file. Decryption runs on the executor, so
+	 * several files can be read in parallel.
+	 *
+	 * @param path
+	 * @return
+	 */
+	public CompletableFuture<byte[]> readFile(Path path) {
+		return getFileContent(path).thenApplyAsync(in -> {
+			try {
+				return readFully(in);
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		}, executor);
+	}
+
+	/**
+	 * Lists all given directories in parallel. The resulting map keeps the
+	 * order of the given paths and fails as soon as one listing fails.
+	 *
+	 * @param dirs
+	 * @return
+	 */
+	public CompletableFuture<Map<Path, Path[]>> listAll(Collection<Path> dirs) {
+		Map<Path, CompletableFuture<Path[]>> futures = new LinkedHashMap<Path, CompletableFuture<Path[]>>();
+		for (Path dir : dirs) {
+			futures.put(dir, listFiles(dir));
+		}
+		return allOf(futures);
+	}
+
+	/**
+	 * Reads all given files in parallel, see {@link #readFile(Path)}.
+	 *
+	 * @param paths
+	 * @return
+	 */
+	public CompletableFuture<Map<Path, byte[]>> readAll(Collection<Path> paths) {
+		Map<Path, CompletableFuture<byte[]>> futures = new LinkedHashMap<Path, CompletableFuture<byte[]>>();
+		for (Path path : paths) {
+			futures.put(path, readFile(path));
+		}
+		return allOf(futures);
+	}
+
+	private <T> CompletableFuture<T> call(FilesCall<T> call) {
+		CompletableFuture<T> future = new CompletableFuture<T>();
+		try {
+			call.invoke(files, completing(future));
+		} catch (RuntimeException e) {
+			LOG.warning("Call into files failed: " + e);
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	private <T> Callback<T, Exception> completing(final CompletableFuture<T> future) {
+		return new Callback<T, Exception>() {
+			@Override
+			public void onFailure(final Exception reason) {
+				executor.execute(() -> future.completeExceptionally(reason));
+			}
+
+			@Override
+			public void onSuccess(final T result) {
+				executor.execute(() -> future.complete(result));
+			}
+		};
+	}
+
+	private static <T> CompletableFuture<Map<Path, T>> allOf(final Map<Path, CompletableFuture<T>> futures) {
+		CompletableFuture<?>[] all = futures.values().toArray(new CompletableFuture<?>[futures.size()]);
+		return CompletableFuture.allOf(all).thenApply(ignored -> {
+			Map<Path, T> result = new LinkedHashMap<Path, T>();
+			for (Entry<Path, CompletableFuture<T>> entry : futures.entrySet()) {
+				result.put(entry.getKey(), entry.getValue().join());
+			}
+			return result;
+		});
+	}
+
+	static byte[] readFully(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,95 @@
+/*
+  	Copyright (C) 2013 Marco Schulte
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.voot.encfsanywhere.fs.server;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import de.voot.encfsanywhere.fs.shared.Path;
+import de.voot.encfsgwt.shared.jre.InputStream;
+
+/**
+ * Blocking view of {@link AsyncFiles}. Meant to be called from virtual
+ * threads, where waiting for a result does not tie up a platform thread.
+ */
+public class BlockingFiles {
+
+	private final AsyncFiles files;
+
+	public BlockingFiles(AsyncFiles files) {
+		this.files = files;
+	}
+
+	public void disconnect() {
+		files.disconnect();
+	}
+
+	public void unlock(Path encFSRoot, String password) throws IOException {
+		await(files.unlock(encFSRoot, password));
+	}
+
+	public void unlock(Path encFSRoot) throws IOException {
+		await(files.unlock(encFSRoot));
+	}
+
+	public Path pathForName(String path) throws IOException {
+		return await(files.pathForName(path));
+	}
+
+	public Path[] listFiles(Path path) throws IOException {
+		return await(files.listFiles(path));
+	}
+
+	public InputStream getFileContent(Path path) throws IOException {
+		return await(files.getFileContent(path));
+	}
+
+	public byte[] readFile(Path path) throws IOException {
+		return await(files.readFile(path));
+	}
+
+	public Map<Path, Path[]> listAll(Collection<Path> dirs) throws IOException {
+		return await(files.listAll(dirs));
+	}
+
+	public Map<Path, byte[]> readAll(Collection<Path> paths) throws IOException {
+		return await(files.readAll(paths));
+	}
+
+	private static <T> T await(CompletableFuture<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			future.cancel(false);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for result");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+}
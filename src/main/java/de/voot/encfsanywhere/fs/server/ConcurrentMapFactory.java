@@ -0,0 +1,47 @@
+/*
+  	Copyright (C) 2013 Marco Schulte
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.voot.encfsanywhere.fs.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.voot.encfsanywhere.fs.shared.MapFactory;
+
+/**
+ * Creates {@link ConcurrentHashMap}s, making {@link de.voot.encfsanywhere.fs.shared.Files}
+ * safe to use from several threads. Reads are lock-free and writes only lock
+ * a single bin, so throughput scales with the number of cores.
+ */
+public class ConcurrentMapFactory implements MapFactory {
+
+	public static final ConcurrentMapFactory INSTANCE = new ConcurrentMapFactory();
+
+	private final int concurrencyLevel;
+
+	public ConcurrentMapFactory() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public ConcurrentMapFactory(int concurrencyLevel) {
+		this.concurrencyLevel = concurrencyLevel;
+	}
+
+	@Override
+	public <K, V> Map<K, V> newMap() {
+		return new ConcurrentHashMap<K, V>(16, 0.75f, concurrencyLevel);
+	}
+}
@@ -0,0 +1,195 @@
+/*
+  	Copyright (C) 2013 Marco Schulte
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.voot.encfsanywhere.fs.server;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import de.voot.encfsanywhere.fs.shared.cache.ContentStore;
+
+/**
+ * Keeps content in files within a directory, evicting the least recently
+ * used entries once the byte budget is exceeded. Survives restarts: existing
+ * files are picked up again, ordered by their modification time. Files of
+ * revisions that changed meanwhile are not recognised as outdated and stay
+ * until they are evicted.
+ * 
+ * One store may back the caching providers of several accounts, their keys
+ * are namespaced, see
+ * {@link de.voot.encfsanywhere.fs.shared.providers.CachingFileProvider}.
+ */
+public class DiskContentStore implements ContentStore {
+
+	private static final Logger LOG = Logger.getLogger("de.voot.encfsanywhere.fs.server.DiskContentStore");
+
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private final Path directory;
+	private final long budget;
+	// file name to size, in access order
+	private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+	private long size = 0;
+	private long evictions = 0;
+
+	public DiskContentStore(Path directory, long budget) throws IOException {
+		this.directory = directory;
+		this.budget = budget;
+		Files.createDirectories(directory);
+		load();
+	}
+
+	private void load() throws IOException {
+		List<Path> files = new ArrayList<Path>();
+		try (Stream<Path> listing = Files.list(directory)) {
+			listing.forEach(files::add);
+		}
+		List<Path> existing = new ArrayList<Path>();
+		for (Path file : files) {
+			if (file.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+				Files.deleteIfExists(file);
+			} else {
+				existing.add(file);
+			}
+		}
+		existing.sort(Comparator.comparing(DiskContentStore::lastModified));
+		for (Path file : existing) {
+			long length = Files.size(file);
+			entries.put(file.getFileName().toString(), length);
+			size += length;
+		}
+		LOG.info("Loaded " + entries.size() + " entries, " + size + " bytes from <" + directory + ">");
+		synchronized (this) {
+			evict();
+		}
+	}
+
+	@Override
+	public byte[] get(String key) {
+		String name = fileName(key);
+		synchronized (this) {
+			if (entries.get(name) == null) {
+				return null;
+			}
+		}
+		try {
+			return Files.readAllBytes(directory.resolve(name));
+		} catch (NoSuchFileException e) {
+			// evicted meanwhile
+			return null;
+		} catch (IOException e) {
+			LOG.warning("Reading cache entry failed: " + e);
+			remove(key);
+			return null;
+		}
+	}
+
+	@Override
+	public void put(String key, byte[] content) {
+		if (content.length > budget) {
+			return;
+		}
+		String name = fileName(key);
+		try {
+			Path temp = Files.createTempFile(directory, name, TEMP_SUFFIX);
+			Files.write(temp, content);
+			synchronized (this) {
+				Files.move(temp, directory.resolve(name), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				Long previous = entries.put(name, (long) content.length);
+				size += content.length - (previous != null ? previous : 0);
+				evict();
+			}
+		} catch (IOException e) {
+			LOG.warning("Writing cache entry failed: " + e);
+		}
+	}
+
+	@Override
+	public synchronized void remove(String key) {
+		String name = fileName(key);
+		Long removed = entries.remove(name);
+		if (removed != null) {
+			size -= removed;
+			delete(name);
+		}
+	}
+
+	@Override
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	@Override
+	public synchronized long getSize() {
+		return size;
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+		while (size > budget && it.hasNext()) {
+			Map.Entry<String, Long> eldest = it.next();
+			size -= eldest.getValue();
+			it.remove();
+			delete(eldest.getKey());
+			evictions++;
+		}
+	}
+
+	private void delete(String name) {
+		try {
+			Files.deleteIfExists(directory.resolve(name));
+		} catch (IOException e) {
+			LOG.warning("Deleting cache entry failed: " + e);
+		}
+	}
+
+	private static String fileName(String key) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+			StringBuilder name = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+			return name.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static long lastModified(Path file) {
+		try {
+			return Files.readAttributes(file, BasicFileAttributes.class).lastModifiedTime().toMillis();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
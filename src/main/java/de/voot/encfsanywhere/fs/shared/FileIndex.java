@@ -0,0 +1,319 @@
+/*
+  	Copyright (C) 2013 Marco Schulte
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.voot.encfsanywhere.fs.shared;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+import com.google.gwt.core.client.Callback;
+
+/**
+ * In-memory index of the names below a directory, usually the root of an
+ * unlocked encfs volume, so the decrypted names become searchable. Built by
+ * {@link #crawl(int, Callback)} and kept up to date through the listings
+ * {@link Files} reports afterwards.
+ */
+public class FileIndex implements ListingListener {
+
+	private static final Logger LOG = Logger.getLogger("de.voot.encfsanywhere.fs.shared.FileIndex");
+
+	private class Entry {
+		Path path;
+		String name;
+		boolean isDirectory;
+		long size;
+		long lastModified;
+	}
+
+	private final Files files;
+	private final String root;
+	private final TreeMap<String, Entry> byPath = new TreeMap<String, Entry>();
+	private final TreeMap<String, Entry> byName = new TreeMap<String, Entry>();
+
+	/**
+	 * Creates the index and registers it with the given files. Call
+	 * {@link #crawl(int, Callback)} to fill it.
+	 * 
+	 * @param files
+	 * @param root
+	 *            directory to index
+	 */
+	public FileIndex(Files files, Path root) {
+		this.files = files;
+		this.root = root.toString();
+		files.addListingListener(this);
+	}
+
+	public void detach() {
+		files.removeListingListener(this);
+	}
+
+	public synchronized int size() {
+		return byPath.size();
+	}
+
+	/**
+	 * Lists the whole tree below the root with at most
+	 * <code>parallelism</code> listings in flight. Already cached listings
+	 * are taken from the cache. Subdirectories that fail to list are logged
+	 * and skipped. Calls back with the number of indexed entries, or with the
+	 * failure if the root itself cannot be listed.
+	 * 
+	 * @param parallelism
+	 * @param callback
+	 */
+	public void crawl(int parallelism, Callback<Integer, Exception> callback) {
+		LOG.info("Crawling <" + root + ">");
+		new Crawl(parallelism, callback).start();
+	}
+
+	public synchronized List<Path> search(SearchQuery query) {
+		Collection<Entry> candidates;
+		if (query.prefixOnly) {
+			candidates = byName.subMap(query.text, query.text + Character.MAX_VALUE).values();
+		} else {
+			candidates = byName.values();
+		}
+
+		List<Path> result = new ArrayList<Path>();
+		for (Entry entry : candidates) {
+			if (result.size() >= query.limit) {
+				break;
+			}
+			if (matches(entry, query)) {
+				result.add(entry.path);
+			}
+		}
+		return result;
+	}
+
+	private boolean matches(Entry entry, SearchQuery query) {
+		if (entry.isDirectory && !query.includeDirectories) {
+			return false;
+		}
+		if (!query.prefixOnly && !entry.name.contains(query.text)) {
+			return false;
+		}
+		return entry.size >= query.minSize && entry.size <= query.maxSize && entry.lastModified > query.modifiedAfter
+				&& entry.lastModified < query.modifiedBefore;
+	}
+
+	@Override
+	public synchronized void onListed(Path dir, Path[] children) {
+		String d = dir.toString();
+		if (!isWithinRoot(d)) {
+			return;
+		}
+
+		Set<String> listed = new HashSet<String>();
+		for (Path child : children) {
+			listed.add(child.toString());
+		}
+		String prefix = d.endsWith("/") ? d : d + "/";
+		List<String> gone = new ArrayList<String>();
+		for (String path : byPath.subMap(prefix, prefix + Character.MAX_VALUE).keySet()) {
+			if (path.indexOf('/', prefix.length()) == -1 && !listed.contains(path)) {
+				gone.add(path);
+			}
+		}
+		for (String path : gone) {
+			removeSubtree(path);
+		}
+
+		for (Path child : children) {
+			index(child);
+		}
+	}
+
+	@Override
+	public synchronized void onAdded(Path path) {
+		if (isWithinRoot(path.toString())) {
+			index(path);
+		}
+	}
+
+	@Override
+	public synchronized void onRemoved(String path) {
+		removeSubtree(path);
+	}
+
+	private boolean isWithinRoot(String path) {
+		return path.equals(root) || path.startsWith(root.endsWith("/") ? root : root.concat("/"));
+	}
+
+	private void index(Path path) {
+		Entry entry = new Entry();
+		entry.path = path;
+		entry.name = files.getName(path).toLowerCase();
+		entry.isDirectory = files.isDirectory(path);
+		entry.size = files.getSize(path);
+		entry.lastModified = files.getLastModified(path);
+
+		String p = path.toString();
+		Entry previous = byPath.put(p, entry);
+		if (previous != null) {
+			byName.remove(nameKey(previous));
+		}
+		byName.put(nameKey(entry), entry);
+	}
+
+	private void removeSubtree(String path) {
+		List<String> paths = new ArrayList<String>();
+		if (byPath.containsKey(path)) {
+			paths.add(path);
+		}
+		String prefix = path.endsWith("/") ? path : path + "/";
+		paths.addAll(byPath.subMap(prefix, prefix + Character.MAX_VALUE).keySet());
+		for (String p : paths) {
+			byName.remove(nameKey(byPath.remove(p)));
+		}
+	}
+
+	private static String nameKey(Entry entry) {
+		return entry.name + '\0' + entry.path.toString();
+	}
+
+	private class Crawl {
+		private final int parallelism;
+		private final Callback<Integer, Exception> callback;
+		private final LinkedList<Path> queue = new LinkedList<Path>();
+		private int inFlight = 0;
+		private boolean done = false;
+		private boolean draining = false;
+		private boolean again = false;
+
+		Crawl(int parallelism, Callback<Integer, Exception> callback) {
+			this.parallelism = parallelism;
+			this.callback = callback;
+		}
+
+		void start() {
+			files.pathForName(root, new Callback<Path, Exception>() {
+				@Override
+				public void onFailure(Exception reason) {
+					fail(reason);
+				}
+
+				@Override
+				public void onSuccess(Path result) {
+					synchronized (Crawl.this) {
+						queue.add(result);
+					}
+					next();
+				}
+			});
+		}
+
+		/**
+		 * Starts listings until the limit is reached. Cached listings call
+		 * back synchronously and call this method again; such calls only mark
+		 * that there is more to do and the outermost call loops, so the stack
+		 * does not grow with the number of cached directories.
+		 */
+		private void next() {
+			synchronized (this) {
+				if (draining) {
+					again = true;
+					return;
+				}
+				draining = true;
+			}
+
+			while (true) {
+				List<Path> toList = new ArrayList<Path>();
+				boolean finished = false;
+				synchronized (this) {
+					again = false;
+					while (!done && inFlight < parallelism && !queue.isEmpty()) {
+						toList.add(queue.poll());
+						inFlight++;
+					}
+					if (!done && inFlight == 0 && queue.isEmpty()) {
+						done = true;
+						finished = true;
+					}
+				}
+				if (finished) {
+					LOG.info("Crawled <" + root + ">, " + size() + " entries");
+					callback.onSuccess(size());
+					return;
+				}
+				for (Path dir : toList) {
+					list(dir);
+				}
+				synchronized (this) {
+					if (!again) {
+						draining = false;
+						return;
+					}
+				}
+			}
+		}
+
+		private void list(final Path dir) {
+			// listings from the provider are reported by files already
+			final boolean cached = files.isListed(dir);
+			files.listFiles(dir, new Callback<Path[], Exception>() {
+				@Override
+				public void onFailure(Exception reason) {
+					if (dir.toString().equals(root)) {
+						fail(reason);
+						return;
+					}
+					LOG.warning("Skipping <" + dir + "> while crawling <" + root + ">: " + reason.getMessage());
+					synchronized (Crawl.this) {
+						inFlight--;
+					}
+					next();
+				}
+
+				@Override
+				public void onSuccess(Path[] result) {
+					if (cached) {
+						onListed(dir, result);
+					}
+					synchronized (Crawl.this) {
+						inFlight--;
+						for (Path child : result) {
+							if (files.isDirectory(child)) {
+								queue.add(child);
+							}
+						}
+					}
+					next();
+				}
+			});
+		}
+
+		private void fail(Exception reason) {
+			synchronized (this) {
+				if (done) {
+					return;
+				}
+				done = true;
+			}
+			LOG.warning("Crawling <" + root + "> failed: " + reason.getMessage());
+			callback.onFailure(reason);
+		}
+	}
+}
@@ -18,6 +18,9 @@ package de.voot.encfsanywhere.fs.shared;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -26,70 +29,163 @@ import java.util.logging.Logger;
 
 import com.google.gwt.core.client.Callback;
 
+import de.voot.encfsanywhere.fs.shared.io.UploadPump;
+import de.voot.encfsanywhere.fs.shared.io.UploadSession;
 import de.voot.encfsanywhere.fs.shared.providers.FileProvider;
 import de.voot.encfsanywhere.fs.shared.providers.PathRewritingWrapper;
 import de.voot.encfsgwt.shared.jre.InputStream;
+import de.voot.encfsgwt.shared.jre.OutputStream;
 import de.voot.encfsgwt.shared.mrpdaemon.EncFSFile;
 import de.voot.encfsgwt.shared.mrpdaemon.EncFSFileInfo;
-import de.voot.encfsgwt.shared.mrpdaemon.EncFSFileProvider;
 import de.voot.encfsgwt.shared.mrpdaemon.EncFSInputStream;
+import de.voot.encfsgwt.shared.mrpdaemon.EncFSOutputStream;
 import de.voot.encfsgwt.shared.mrpdaemon.EncFSVolume;
 import de.voot.encfsgwt.shared.mrpdaemon.EncFSVolumeBuilder;
 import de.voot.encfsgwt.shared.mrpdaemon.EncFSVolumeBuilder.PasswordBuilder;
 
+/**
+ * Browses a {@link FileProvider} and the encfs volumes within it. Metadata of
+ * unencrypted paths is kept in a {@link MetadataCache} that may be shared with
+ * other instances on the same account. Unlocked volumes and everything within
+ * them (decrypted names included) stay private to this instance.
+ * 
+ * Instances built with the default {@link MapFactory} are meant for
+ * single-threaded use only.
+ */
 public class Files {
 
 	private static final Logger LOG = Logger.getLogger("de.voot.encfsanywhere.fs.shared.Files");
 
-	private class PathInfo {
-		Path path;
-		long lastModified;
-		boolean isDirectory;
-		Boolean isEncFSRoot;
-		long size;
-		Path[] children;
-	}
-
 	private class EncFSPath {
 		String root;
 		String remaining;
 		String full;
 	}
 
-	private Map<String, PathInfo> cache = new HashMap<String, PathInfo>();
-	private Map<String, EncFSFile> encFSFileCache = new HashMap<String, EncFSFile>();
-	private Map<String, EncFSVolume> encfsVolumes = new HashMap<String, EncFSVolume>();
-	private FileProvider provider;
+	private class FailedUpload {
+		UploadPump pump;
+		String ciphertextPath;
+		long length;
+	}
+
+	private final MetadataCache cache;
+	private final Map<String, PathInfo> sessionCache;
+	private final Map<String, EncFSFile> encFSFileCache;
+	private final Map<String, EncFSVolume> encfsVolumes;
+	private final Map<String, PathRewritingWrapper> encfsProviders;
+	private final Map<String, FailedUpload> failedUploads;
+	private final VolumeKeyCache keyCache;
+	private final FileProvider provider;
+	private volatile List<ListingListener> listeners = new ArrayList<ListingListener>();
 
 	public Files(FileProvider provider) {
+		this(provider, new MetadataCache(), MapFactory.HASH_MAP);
+	}
+
+	/**
+	 * @param provider
+	 * @param cache
+	 *            metadata cache, possibly shared with other instances
+	 * @param mapFactory
+	 *            creates the maps holding the state of this instance. Must
+	 *            produce thread-safe maps if this instance is used
+	 *            concurrently.
+	 */
+	public Files(FileProvider provider, MetadataCache cache, MapFactory mapFactory) {
+		this(provider, cache, mapFactory, null);
+	}
+
+	/**
+	 * @param provider
+	 * @param cache
+	 * @param mapFactory
+	 * @param keyCache
+	 *            remembers derived volume keys for
+	 *            {@link #unlock(Path, Callback)}, may be <code>null</code>.
+	 *            Cleared on {@link #disconnect()}.
+	 */
+	public Files(FileProvider provider, MetadataCache cache, MapFactory mapFactory, VolumeKeyCache keyCache) {
 		this.provider = provider;
+		this.cache = cache;
+		this.keyCache = keyCache;
+		this.sessionCache = mapFactory.newMap();
+		this.encFSFileCache = mapFactory.newMap();
+		this.encfsVolumes = mapFactory.newMap();
+		this.encfsProviders = mapFactory.newMap();
+		this.failedUploads = mapFactory.newMap();
 	}
 
 	public void disconnect() {
 		LOG.info("Disconnecting");
+		if (keyCache != null) {
+			keyCache.clear();
+		}
 		provider.disconnect();
 	}
 
+	public synchronized void addListingListener(ListingListener listener) {
+		List<ListingListener> newListeners = new ArrayList<ListingListener>(listeners);
+		newListeners.add(listener);
+		listeners = newListeners;
+	}
+
+	public synchronized void removeListingListener(ListingListener listener) {
+		List<ListingListener> newListeners = new ArrayList<ListingListener>(listeners);
+		newListeners.remove(listener);
+		listeners = newListeners;
+	}
+
 	public String getName(Path path) {
 		String s = path.toString();
 		return s.substring(s.lastIndexOf("/") + 1);
 	}
 
 	public long getSize(Path path) {
-		PathInfo info = cache.get(path.toString());
+		PathInfo info = knownInfo(path);
 		return info.size;
 	}
 
 	public long getLastModified(Path path) {
-		PathInfo info = cache.get(path.toString());
+		PathInfo info = knownInfo(path);
 		return info.lastModified;
 	}
 
+	/**
+	 * Returns the plaintext byte total, file count and latest modification
+	 * of everything below the given directory, as far as it has been listed.
+	 * Maintained as listings come in, so this is cheap to call repeatedly
+	 * while a view fills in.
+	 * 
+	 * @param path
+	 * @return
+	 */
+	public FolderUsage getFolderUsage(Path path) {
+		PathInfo info = knownInfo(path);
+		synchronized (info) {
+			if (!info.isDirectory) {
+				return new FolderUsage(info.size, 1, info.lastModified, true);
+			}
+			return new FolderUsage(info.subtreeBytes, info.subtreeFiles, info.subtreeLastModified, info.isComplete());
+		}
+	}
+
 	public boolean isDirectory(Path path) {
-		PathInfo info = cache.get(path.toString());
+		PathInfo info = knownInfo(path);
 		return info.isDirectory;
 	}
 
+	/**
+	 * Tells whether <code>listFiles</code> would answer from the cache, i.e.
+	 * without reporting the listing to the listeners.
+	 * 
+	 * @param path
+	 * @return
+	 */
+	public boolean isListed(Path path) {
+		PathInfo info = infoFor(path.toString());
+		return info != null && info.children != null;
+	}
+
 	/**
 	 * Returns <code>null</code> if information is not available. Information is
 	 * not available until <code>listFiles</code> has been called on given path.
@@ -98,7 +194,7 @@ public class Files {
 	 * @return
 	 */
 	public Boolean isEncFSRoot(Path path) {
-		PathInfo info = cache.get(path.toString());
+		PathInfo info = knownInfo(path);
 		return info.isEncFSRoot;
 	}
 
@@ -107,15 +203,113 @@ public class Files {
 	}
 
 	public String getParentPath(Path path) {
-		PathInfo info = cache.get(path.toString());
+		PathInfo info = knownInfo(path);
 		String p = info.path.toString();
 		String parent = p.substring(0, p.lastIndexOf("/"));
 		return parent.isEmpty() ? "/" : parent;
 	}
 
-	public void unlock(final Path encFSRoot, String password, final Callback<Void, Exception> callback) {
-		EncFSFileProvider newProvider = new PathRewritingWrapper(encFSRoot.toString(), provider);
-		new EncFSVolumeBuilder().withFileProvider(newProvider).withPassword(password, new Callback<EncFSVolumeBuilder.PasswordBuilder, Exception>() {
+	/**
+	 * Unlocks the volume by deriving its key from the password. If this
+	 * instance has a {@link VolumeKeyCache}, the derived key is remembered for
+	 * {@link #unlock(Path, Callback)}.
+	 * 
+	 * @param encFSRoot
+	 * @param password
+	 * @param callback
+	 */
+	public void unlock(final Path encFSRoot, final String password, final Callback<Void, Exception> callback) {
+		final PathRewritingWrapper newProvider = new PathRewritingWrapper(encFSRoot.toString(), provider);
+		if (keyCache == null) {
+			new EncFSVolumeBuilder().withFileProvider(newProvider).withPassword(password, volumeBuildingCallback(encFSRoot, newProvider, null, callback));
+			return;
+		}
+
+		readConfig(encFSRoot.toString(), new Callback<String, Exception>() {
+			@Override
+			public void onFailure(Exception reason) {
+				callback.onFailure(reason);
+			}
+
+			@Override
+			public void onSuccess(String result) {
+				new EncFSVolumeBuilder().withFileProvider(newProvider).withPassword(password, volumeBuildingCallback(encFSRoot, newProvider, result, callback));
+			}
+		});
+	}
+
+	/**
+	 * Unlocks the volume with a key remembered by the {@link VolumeKeyCache}
+	 * from an earlier password unlock, skipping the key derivation. Fails if
+	 * there is no such key, if it has expired or if the volume config changed
+	 * since. The password is deliberately not accepted here: a cached key
+	 * must not make a wrong password succeed. The key stays cached if
+	 * unlocking fails with an {@link IOException}, it is dropped if the
+	 * volume rejects it.
+	 * 
+	 * @param encFSRoot
+	 * @param callback
+	 */
+	public void unlock(final Path encFSRoot, final Callback<Void, Exception> callback) {
+		final String root = encFSRoot.toString();
+		if (keyCache == null || !keyCache.contains(root)) {
+			callback.onFailure(new IOException("No cached key for volume"));
+			return;
+		}
+
+		readConfig(root, new Callback<String, Exception>() {
+			@Override
+			public void onFailure(Exception reason) {
+				callback.onFailure(reason);
+			}
+
+			@Override
+			public void onSuccess(String result) {
+				final byte[] key = keyCache.get(root, result);
+				if (key == null) {
+					callback.onFailure(new IOException("No cached key for volume"));
+					return;
+				}
+
+				LOG.info("Unlocking volume <" + root + "> with cached key");
+				PathRewritingWrapper newProvider = new PathRewritingWrapper(root, provider);
+				new EncFSVolumeBuilder().withFileProvider(newProvider).withDerivedKeyData(key,
+						volumeBuildingCallback(encFSRoot, newProvider, null, new Callback<Void, Exception>() {
+							@Override
+							public void onFailure(Exception reason) {
+								Arrays.fill(key, (byte) 0);
+								// I/O failures may be transient, only a rejected key is dropped
+								if (!(reason instanceof IOException)) {
+									keyCache.remove(root);
+								}
+								callback.onFailure(reason);
+							}
+
+							@Override
+							public void onSuccess(Void result) {
+								// the volume has set up its ciphers, the copy is not needed any more
+								Arrays.fill(key, (byte) 0);
+								callback.onSuccess(result);
+							}
+						}));
+			}
+		});
+	}
+
+	/**
+	 * Builds the volume and registers it as unlocked. If the content of the
+	 * volume config is given, the derived key is stored in the key cache
+	 * along with it.
+	 * 
+	 * @param encFSRoot
+	 * @param volumeProvider
+	 * @param config
+	 * @param callback
+	 * @return
+	 */
+	private Callback<PasswordBuilder, Exception> volumeBuildingCallback(final Path encFSRoot, final PathRewritingWrapper volumeProvider,
+			final String config, final Callback<Void, Exception> callback) {
+		return new Callback<EncFSVolumeBuilder.PasswordBuilder, Exception>() {
 			@Override
 			public void onFailure(Exception reason) {
 				callback.onFailure(reason);
@@ -132,8 +326,19 @@ public class Files {
 
 						@Override
 						public void onSuccess(EncFSVolume result) {
-							removeChildrenFromCache(encFSRoot.toString());
-							encfsVolumes.put(encFSRoot.toString(), result);
+							String root = encFSRoot.toString();
+							PathInfo rootInfo = knownInfo(encFSRoot);
+							if (rootInfo == null) {
+								callback.onFailure(new IOException("No metadata for <" + root + ">, list its parent again"));
+								return;
+							}
+							if (config != null) {
+								keyCache.put(root, config, result.getDerivedKeyData());
+							}
+							removeChildrenFromCache(root);
+							sessionCache.put(root, rootInfo.copyWithoutChildren());
+							encfsProviders.put(root, volumeProvider);
+							encfsVolumes.put(root, result);
 							callback.onSuccess(null);
 						}
 					});
@@ -141,12 +346,34 @@ public class Files {
 					callback.onFailure(e);
 				}
 			}
+		};
+	}
+
+	private void readConfig(String root, final Callback<String, Exception> callback) {
+		String configPath = (root.endsWith("/") ? root : root + "/") + EncFSVolume.CONFIG_FILE_NAME;
+		provider.openInputStream(configPath, new Callback<InputStream, IOException>() {
+			@Override
+			public void onFailure(IOException reason) {
+				callback.onFailure(reason);
+			}
+
+			@Override
+			public void onSuccess(InputStream result) {
+				String config;
+				try {
+					config = VolumeKeyCache.readConfig(result);
+				} catch (IOException e) {
+					callback.onFailure(e);
+					return;
+				}
+				callback.onSuccess(config);
+			}
 		});
 	}
 
 	public void pathForName(String path, final Callback<Path, Exception> callback) {
 		LOG.info("Determining path object for path <" + path + ">");
-		PathInfo info = cache.get(path.toString());
+		PathInfo info = infoFor(path.toString());
 
 		if (info != null) {
 			LOG.info("Found cached pathinfo");
@@ -199,12 +426,27 @@ public class Files {
 
 	public void listFiles(Path path, final Callback<Path[], Exception> callback) {
 		LOG.info("Listing files of path <" + path + ">");
-		if (!isDirectory(path)) {
+		final PathInfo info = infoFor(path.toString());
+		if (info == null) {
+			// dropped from the shared cache in the meantime
+			pathForName(path.toString(), new Callback<Path, Exception>() {
+				@Override
+				public void onFailure(Exception reason) {
+					callback.onFailure(reason);
+				}
+
+				@Override
+				public void onSuccess(Path result) {
+					listFiles(result, callback);
+				}
+			});
+			return;
+		}
+		if (!info.isDirectory) {
 			callback.onFailure(new IOException("Not a directory"));
+			return;
 		}
 
-		final PathInfo info = cache.get(path.toString());
-
 		if (info.children == null) {
 			EncFSPath encfsPath = unlockedRootForPath(path.toString());
 			if (encfsPath != null) {
@@ -229,17 +471,20 @@ public class Files {
 			public void onSuccess(List<EncFSFileInfo> result) {
 				Path[] paths = new Path[result.size()];
 
-				info.isEncFSRoot = false;
+				boolean isEncFSRoot = false;
 				for (int i = 0; i < result.size(); i++) {
 					EncFSFileInfo encFSFileInfo = result.get(i);
-					Path newPath = new Path(encFSFileInfo.getPath());
-					paths[i] = newPath;
-					createCacheEntry(newPath, encFSFileInfo);
+					paths[i] = createCacheEntry(new Path(encFSFileInfo.getPath()), encFSFileInfo);
 					if (EncFSVolume.CONFIG_FILE_NAME.equals(encFSFileInfo.getName())) {
-						info.isEncFSRoot = true;
+						isEncFSRoot = true;
 					}
 				}
-				info.children = paths;
+				info.isEncFSRoot = isEncFSRoot;
+				synchronized (info) {
+					info.children = paths;
+				}
+				refreshAggregate(info);
+				fireListed(info.path, paths);
 				callback.onSuccess(info.children);
 			}
 		});
@@ -257,17 +502,20 @@ public class Files {
 			public void onSuccess(EncFSFile[] result) {
 				Path[] paths = new Path[result.length];
 
-				info.isEncFSRoot = false;
+				boolean isEncFSRoot = false;
 				for (int i = 0; i < result.length; i++) {
 					EncFSFile encFSFile = result[i];
-					Path newPath = new Path(path.root + encFSFile.getPath());
-					paths[i] = newPath;
-					createCacheEntry(newPath, encFSFile);
+					paths[i] = createCacheEntry(new Path(path.root + encFSFile.getPath()), encFSFile);
 					if (EncFSVolume.CONFIG_FILE_NAME.equals(encFSFile.getName())) {
-						info.isEncFSRoot = true;
+						isEncFSRoot = true;
 					}
 				}
-				info.children = paths;
+				info.isEncFSRoot = isEncFSRoot;
+				synchronized (info) {
+					info.children = paths;
+				}
+				refreshAggregate(info);
+				fireListed(info.path, paths);
 				callback.onSuccess(info.children);
 			}
 		};
@@ -314,8 +562,25 @@ public class Files {
 			}
 		};
 
-		if (isDirectory(path)) {
+		PathInfo info = infoFor(path.toString());
+		if (info == null) {
+			// dropped from the shared cache in the meantime
+			pathForName(path.toString(), new Callback<Path, Exception>() {
+				@Override
+				public void onFailure(Exception reason) {
+					callback.onFailure(reason);
+				}
+
+				@Override
+				public void onSuccess(Path result) {
+					getFileContent(result, callback);
+				}
+			});
+			return;
+		}
+		if (info.isDirectory) {
 			callback.onFailure(new IOException("Path is a directory"));
+			return;
 		}
 
 		EncFSPath encfsPath = unlockedRootForPath(path.toString());
@@ -332,26 +597,774 @@ public class Files {
 		}
 	}
 
-	private void createCacheEntry(Path path, EncFSFileInfo encFSFileInfo) {
+	/**
+	 * Uploads the content as new file <code>name</code> within the given
+	 * directory, encrypting it if the directory lies within an unlocked
+	 * volume. The content is streamed, it is never buffered as a whole. The
+	 * new file is added to the cached listing of the directory, so the
+	 * directory does not need to be listed again.
+	 * 
+	 * If the upload fails it can be continued with
+	 * {@link #resumeUpload(String, Callback)} or given up with
+	 * {@link #discardUpload(String)}.
+	 * 
+	 * @param dir
+	 * @param name
+	 * @param content
+	 * @param length
+	 *            plaintext length of the content
+	 * @param callback
+	 */
+	public void writeFile(Path dir, String name, final InputStream content, final long length, final Callback<Path, Exception> callback) {
+		if (!isDirectory(dir)) {
+			callback.onFailure(new IOException("Not a directory"));
+			return;
+		}
+
+		String d = dir.toString();
+		final String fullPath = (d.endsWith("/") ? d : d + "/") + name;
+		LOG.info("Writing file <" + fullPath + ">");
+
+		final EncFSPath encfsPath = unlockedRootForPath(fullPath);
+		if (encfsPath == null) {
+			OutputStream out;
+			try {
+				out = provider.openOutputStream(fullPath, length);
+			} catch (IOException e) {
+				callback.onFailure(e);
+				return;
+			}
+			startUpload(fullPath, null, new UploadPump(content, out, provider.getUploadSession(fullPath)), length, callback);
+			return;
+		}
+
+		final PathRewritingWrapper volumeProvider = encfsProviders.get(encfsPath.root);
+		final EncFSVolume volume = volumeForPath(encfsPath.root);
+		volume.openOutputStreamForPath(encfsPath.remaining, length, new Callback<EncFSOutputStream, Exception>() {
+			@Override
+			public void onFailure(final Exception reason) {
+				// collect the failures of the operations issued so far, so they are not reported to the next caller
+				provider.flush(new Callback<Void, IOException>() {
+					@Override
+					public void onFailure(IOException ignored) {
+						callback.onFailure(reason);
+					}
+
+					@Override
+					public void onSuccess(Void result) {
+						callback.onFailure(reason);
+					}
+				});
+			}
+
+			@Override
+			public void onSuccess(final EncFSOutputStream out) {
+				// the encfs layer created the file without waiting for the provider
+				provider.flush(new Callback<Void, IOException>() {
+					@Override
+					public void onFailure(IOException reason) {
+						callback.onFailure(reason);
+					}
+
+					@Override
+					public void onSuccess(Void result) {
+						// the session is registered under the ciphertext name, which only the volume knows
+						volume.getFile(encfsPath.remaining, new Callback<EncFSFile, Exception>() {
+							@Override
+							public void onFailure(Exception reason) {
+								callback.onFailure(reason);
+							}
+
+							@Override
+							public void onSuccess(EncFSFile result) {
+								UploadSession session = volumeProvider.getUploadSession(result.getEncryptedPath());
+								String ciphertextPath = encfsPath.root + result.getEncryptedPath();
+								startUpload(fullPath, ciphertextPath, new UploadPump(content, out, session), length, callback);
+							}
+						});
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Continues a failed upload of {@link #writeFile}.
+	 * 
+	 * @param path
+	 *            full path of the file that failed to upload
+	 * @param callback
+	 */
+	public void resumeUpload(String path, Callback<Path, Exception> callback) {
+		FailedUpload failed = failedUploads.remove(path);
+		if (failed == null) {
+			callback.onFailure(new IOException("No failed upload for path"));
+			return;
+		}
+		failed.pump.resume(uploadCallback(path, failed.ciphertextPath, failed.pump, failed.length, callback));
+	}
+
+	/**
+	 * Gives up a failed upload of {@link #writeFile}, dropping the data still
+	 * buffered for it.
+	 * 
+	 * @param path
+	 *            full path of the file that failed to upload
+	 * @return <code>false</code> if there was no failed upload for the path
+	 */
+	public boolean discardUpload(String path) {
+		FailedUpload failed = failedUploads.remove(path);
+		if (failed == null) {
+			return false;
+		}
+		LOG.info("Discarding failed upload of <" + path + ">");
+		failed.pump.abort();
+		return true;
+	}
+
+	/**
+	 * @param fullPath
+	 * @param ciphertextPath
+	 *            full encrypted path of the file if it is written into an
+	 *            unlocked volume, <code>null</code> otherwise
+	 * @param pump
+	 * @param length
+	 * @param callback
+	 */
+	private void startUpload(String fullPath, String ciphertextPath, UploadPump pump, long length, Callback<Path, Exception> callback) {
+		if (pump.getSession() == null) {
+			callback.onFailure(new IOException("Provider does not support streaming uploads"));
+			return;
+		}
+		pump.start(uploadCallback(fullPath, ciphertextPath, pump, length, callback));
+	}
+
+	private Callback<EncFSFileInfo, IOException> uploadCallback(final String fullPath, final String ciphertextPath, final UploadPump pump,
+			final long length, final Callback<Path, Exception> callback) {
+		return new Callback<EncFSFileInfo, IOException>() {
+			@Override
+			public void onFailure(IOException reason) {
+				UploadSession session = pump.getSession();
+				if (session.isFailed() && !session.isAborted()) {
+					FailedUpload failed = new FailedUpload();
+					failed.pump = pump;
+					failed.ciphertextPath = ciphertextPath;
+					failed.length = length;
+					failedUploads.put(fullPath, failed);
+				}
+				callback.onFailure(reason);
+			}
+
+			@Override
+			public void onSuccess(EncFSFileInfo result) {
+				Path newPath = new Path(fullPath);
+				if (unlockedRootForPath(fullPath) != null) {
+					PathInfo info = new PathInfo();
+					info.path = newPath;
+					info.isDirectory = false;
+					info.lastModified = result.getLastModified();
+					info.size = length;
+					newPath.info = info;
+					sessionCache.put(fullPath, info);
+					encFSFileCache.remove(fullPath);
+					invalidateSharedListing(parentOf(ciphertextPath));
+				} else {
+					createCacheEntry(newPath, result);
+				}
+				addChild(newPath);
+				callback.onSuccess(newPath);
+			}
+		};
+	}
+
+	/**
+	 * Moves a file or directory using a server-side move. Within an unlocked
+	 * volume the encfs layer renames the ciphertext names (of the whole
+	 * subtree, if names are chained) server-side as well. The cached subtree
+	 * is rewritten to the new location instead of being listed again. Shared
+	 * listings of the volume's encrypted names are marked as not listed, so
+	 * other sessions list them again.
+	 * 
+	 * Fails if the volume uses external IV chaining, as file contents would
+	 * have to be re-encrypted.
+	 * 
+	 * @param src
+	 * @param dstPath
+	 * @param callback
+	 */
+	public void move(Path src, String dstPath, Callback<Path, Exception> callback) {
+		transfer(src, dstPath, false, callback);
+	}
+
+	/**
+	 * Copies a file or directory using server-side copies, see
+	 * {@link #move(Path, String, Callback)}.
+	 * 
+	 * @param src
+	 * @param dstPath
+	 * @param callback
+	 */
+	public void copy(Path src, String dstPath, Callback<Path, Exception> callback) {
+		transfer(src, dstPath, true, callback);
+	}
+
+	private void transfer(Path src, final String dstPath, final boolean keepSource, final Callback<Path, Exception> callback) {
+		final String srcPath = src.toString();
+		LOG.info((keepSource ? "Copying" : "Moving") + " <" + srcPath + "> to <" + dstPath + ">");
+
+		for (String root : encfsVolumes.keySet()) {
+			if (root.equals(srcPath) || root.startsWith(srcPath.concat("/"))) {
+				callback.onFailure(new IOException("Cannot move or copy an unlocked volume"));
+				return;
+			}
+		}
+
+		final Callback<Void, IOException> rewritingCallback = new Callback<Void, IOException>() {
+			@Override
+			public void onFailure(IOException reason) {
+				callback.onFailure(reason);
+			}
+
+			@Override
+			public void onSuccess(Void result) {
+				callback.onSuccess(rewriteCachedSubtree(srcPath, dstPath, keepSource));
+			}
+		};
+
+		EncFSPath encfsSrc = unlockedRootForPath(srcPath);
+		EncFSPath encfsDst = unlockedRootForPath(dstPath);
+		if (encfsSrc == null && encfsDst == null) {
+			Callback<EncFSFileInfo, IOException> providerCallback = new Callback<EncFSFileInfo, IOException>() {
+				@Override
+				public void onFailure(IOException reason) {
+					callback.onFailure(reason);
+				}
+
+				@Override
+				public void onSuccess(EncFSFileInfo result) {
+					rewritingCallback.onSuccess(null);
+				}
+			};
+			if (keepSource) {
+				provider.copy(srcPath, dstPath, providerCallback);
+			} else {
+				provider.move(srcPath, dstPath, providerCallback);
+			}
+			return;
+		}
+
+		if (encfsSrc == null || encfsDst == null || !encfsSrc.root.equals(encfsDst.root)) {
+			callback.onFailure(new IOException("Cannot move or copy across volume boundaries"));
+			return;
+		}
+
+		EncFSVolume volume = volumeForPath(encfsSrc.root);
+		if (volume.getConfig().isSupportedExternalIVChaining()) {
+			callback.onFailure(new IOException("Volume uses external IV chaining, file contents would have to be re-encrypted"));
+			return;
+		}
+
+		Callback<Boolean, Exception> volumeCallback = new Callback<Boolean, Exception>() {
+			@Override
+			public void onFailure(final Exception reason) {
+				// collect the failures of the operations issued so far, so they are not reported to the next caller
+				provider.flush(new Callback<Void, IOException>() {
+					@Override
+					public void onFailure(IOException ignored) {
+						callback.onFailure(reason);
+					}
+
+					@Override
+					public void onSuccess(Void result) {
+						callback.onFailure(reason);
+					}
+				});
+			}
+
+			@Override
+			public void onSuccess(Boolean result) {
+				if (!result.booleanValue()) {
+					onFailure(new IOException("Operation rejected by volume"));
+					return;
+				}
+				// the encfs layer issues the provider operations without waiting for them
+				provider.flush(rewritingCallback);
+			}
+		};
+		if (keepSource) {
+			volume.copyPath(encfsSrc.remaining, encfsDst.remaining, volumeCallback);
+		} else {
+			volume.movePath(encfsSrc.remaining, encfsDst.remaining, volumeCallback);
+		}
+	}
+
+	/**
+	 * Re-keys the cached entries of a moved or copied subtree to its new
+	 * location, including the cached listings. Cached EncFSFile instances
+	 * carry the old ciphertext names, so they are dropped; lookups fall back
+	 * to the volume.
+	 * 
+	 * @param srcPath
+	 * @param dstPath
+	 * @param keepSource
+	 *            <code>true</code> for copies
+	 * @return the path object of the new location
+	 */
+	private Path rewriteCachedSubtree(String srcPath, String dstPath, boolean keepSource) {
+		EncFSPath volume = unlockedRootForPath(dstPath);
+		boolean encrypted = volume != null;
+		if (encrypted) {
+			invalidateSharedListings(volume.root);
+		}
+		List<String> keys = new ArrayList<String>();
+		for (String key : encrypted ? sessionCache.keySet() : cache.pathsWithin(srcPath)) {
+			if (key.equals(srcPath) || key.startsWith(srcPath.concat("/"))) {
+				keys.add(key);
+			}
+		}
+
+		Map<String, PathInfo> rewritten = new HashMap<String, PathInfo>();
+		for (String key : keys) {
+			PathInfo info = encrypted ? sessionCache.get(key) : cache.get(key);
+			if (info == null) {
+				continue;
+			}
+			String newKey = dstPath + key.substring(srcPath.length());
+			PathInfo copy = info.copyWithoutChildren();
+			copy.path = new Path(newKey);
+			copy.children = info.children;
+			rewritten.put(newKey, copy);
+		}
+
+		for (PathInfo info : rewritten.values()) {
+			if (info.children == null) {
+				continue;
+			}
+			Path[] children = new Path[info.children.length];
+			for (int i = 0; i < children.length; i++) {
+				String newKey = dstPath + info.children[i].toString().substring(srcPath.length());
+				PathInfo child = rewritten.get(newKey);
+				children[i] = child != null ? child.path : new Path(newKey);
+			}
+			info.children = children;
+		}
+
+		if (!keepSource) {
+			removeChild(srcPath);
+			for (String key : keys) {
+				if (encrypted) {
+					sessionCache.remove(key);
+				} else {
+					cache.remove(key);
+				}
+				encFSFileCache.remove(key);
+			}
+		}
+		for (Entry<String, PathInfo> entry : rewritten.entrySet()) {
+			encFSFileCache.remove(entry.getKey());
+			putInfo(entry.getKey(), entry.getValue());
+		}
+
+		// deepest first, so every directory finds the aggregates of its children
+		List<String> rewrittenDirs = new ArrayList<String>();
+		for (Entry<String, PathInfo> entry : rewritten.entrySet()) {
+			if (entry.getValue().children != null) {
+				rewrittenDirs.add(entry.getKey());
+			}
+		}
+		Collections.sort(rewrittenDirs, new Comparator<String>() {
+			@Override
+			public int compare(String o1, String o2) {
+				return o2.length() - o1.length();
+			}
+		});
+		for (String dir : rewrittenDirs) {
+			refreshAggregate(rewritten.get(dir));
+		}
+
+		PathInfo dstInfo = rewritten.get(dstPath);
+		Path dst = dstInfo != null ? dstInfo.path : new Path(dstPath);
+		addChild(dst);
+		for (PathInfo info : rewritten.values()) {
+			if (info.children != null) {
+				fireListed(info.path, info.children);
+			}
+		}
+		return dst;
+	}
+
+	/**
+	 * Recomputes the aggregates of a directory whose children changed and
+	 * hands the difference up to its ancestors. Each ancestor is adjusted by
+	 * the difference instead of being recomputed, so this costs O(fanout) for
+	 * the directory itself and O(depth) above it. Only a decreasing latest
+	 * modification forces an ancestor to look at its children again.
+	 * 
+	 * Aggregates do not cross from an unlocked volume into the shared cache,
+	 * directories above a volume count its encrypted entries. Every
+	 * {@link PathInfo} guards its own aggregates. A thread only ever locks a
+	 * directory and then one of its children, never the other way round.
+	 * Must not be called while holding the lock of a {@link PathInfo}.
+	 * 
+	 * @param dir
+	 */
+	private void refreshAggregate(PathInfo dir) {
+		EncFSPath volume = unlockedRootForPath(dir.path.toString());
+		String boundary = volume != null ? volume.root : null;
+
+		synchronized (dir) {
+			Path[] children = dir.children;
+			if (children == null) {
+				return;
+			}
+
+			long bytes = 0;
+			long files = 0;
+			long lastModified = 0;
+			int incomplete = 0;
+			for (Path child : children) {
+				PathInfo info = aggregatedInfo(child.toString(), boundary);
+				if (info == null) {
+					continue;
+				}
+				synchronized (info) {
+					if (info.isDirectory) {
+						bytes += info.subtreeBytes;
+						files += info.subtreeFiles;
+						lastModified = Math.max(lastModified, info.subtreeLastModified);
+						if (!info.isComplete()) {
+							incomplete++;
+						}
+						markReported(info);
+					} else {
+						bytes += info.size;
+						files++;
+						lastModified = Math.max(lastModified, info.lastModified);
+					}
+				}
+			}
+			dir.subtreeBytes = bytes;
+			dir.subtreeFiles = files;
+			dir.subtreeLastModified = lastModified;
+			dir.incompleteChildDirs = incomplete;
+		}
+
+		propagateAggregate(dir, boundary);
+	}
+
+	/**
+	 * Looks up the entry taking part in the aggregates on the given side of a
+	 * volume boundary. Unlike {@link #infoFor(String)} this never mixes the
+	 * session's plaintext entries into the aggregates of the shared cache.
+	 * 
+	 * @param path
+	 * @param boundary
+	 *            root of the unlocked volume the aggregates are computed in,
+	 *            <code>null</code> for the shared cache
+	 * @return
+	 */
+	private PathInfo aggregatedInfo(String path, String boundary) {
+		return boundary != null ? sessionCache.get(path) : cache.get(path);
+	}
+
+	private void propagateAggregate(PathInfo dir, String boundary) {
+		PathInfo child = dir;
+		while (true) {
+			String childPath = child.path.toString();
+			if ("/".equals(childPath) || childPath.equals(boundary)) {
+				return;
+			}
+			PathInfo parent = aggregatedInfo(parentOf(childPath), boundary);
+			if (parent == null) {
+				return;
+			}
+
+			synchronized (parent) {
+				if (parent.children == null) {
+					return;
+				}
+
+				long deltaBytes;
+				long deltaFiles;
+				long lastModified;
+				long reportedLastModified;
+				boolean complete;
+				boolean reportedComplete;
+				synchronized (child) {
+					if (!child.reported) {
+						return;
+					}
+					deltaBytes = child.subtreeBytes - child.reportedBytes;
+					deltaFiles = child.subtreeFiles - child.reportedFiles;
+					lastModified = child.subtreeLastModified;
+					reportedLastModified = child.reportedLastModified;
+					complete = child.isComplete();
+					reportedComplete = child.reportedComplete;
+					markReported(child);
+				}
+				if (deltaBytes == 0 && deltaFiles == 0 && complete == reportedComplete && lastModified == reportedLastModified) {
+					return;
+				}
+
+				parent.subtreeBytes += deltaBytes;
+				parent.subtreeFiles += deltaFiles;
+				if (complete != reportedComplete) {
+					parent.incompleteChildDirs += complete ? -1 : 1;
+				}
+				if (lastModified >= parent.subtreeLastModified) {
+					parent.subtreeLastModified = lastModified;
+				} else if (reportedLastModified == parent.subtreeLastModified) {
+					parent.subtreeLastModified = latestModification(parent, boundary);
+				}
+			}
+			child = parent;
+		}
+	}
+
+	private void markReported(PathInfo info) {
+		info.reported = true;
+		info.reportedBytes = info.subtreeBytes;
+		info.reportedFiles = info.subtreeFiles;
+		info.reportedLastModified = info.subtreeLastModified;
+		info.reportedComplete = info.isComplete();
+	}
+
+	private long latestModification(PathInfo dir, String boundary) {
+		long lastModified = 0;
+		for (Path child : dir.children) {
+			PathInfo info = aggregatedInfo(child.toString(), boundary);
+			if (info == null) {
+				continue;
+			}
+			synchronized (info) {
+				lastModified = Math.max(lastModified, info.isDirectory ? info.subtreeLastModified : info.lastModified);
+			}
+		}
+		return lastModified;
+	}
+
+	/**
+	 * Marks the shared listing of a ciphertext directory as not listed after
+	 * this session changed the directory through an unlocked volume. Other
+	 * sessions browsing the encrypted names list it again on their next use.
+	 * 
+	 * @param path
+	 */
+	private void invalidateSharedListing(String path) {
+		PathInfo info = cache.get(path);
+		if (info == null) {
+			return;
+		}
+		synchronized (info) {
+			if (info.children == null) {
+				return;
+			}
+			info.children = null;
+		}
+		propagateAggregate(info, null);
+	}
+
+	/**
+	 * Marks all shared listings within a volume as not listed. Used after
+	 * moves and copies, whose ciphertext names (of a whole subtree, if names
+	 * are chained) this session does not know.
+	 * 
+	 * @param root
+	 */
+	private void invalidateSharedListings(String root) {
+		for (String key : cache.pathsWithin(root)) {
+			if (key.equals(root) || key.startsWith(root.concat("/"))) {
+				invalidateSharedListing(key);
+			}
+		}
+	}
+
+	private static String parentOf(String path) {
+		String parent = path.substring(0, path.lastIndexOf("/"));
+		return parent.isEmpty() ? "/" : parent;
+	}
+
+	/**
+	 * Removes the path from the cached listing of its parent. The listing may
+	 * be shared with other sessions, so it is replaced under the lock of the
+	 * parent.
+	 * 
+	 * @param path
+	 */
+	private void removeChild(String path) {
+		PathInfo parent = infoFor(parentOf(path));
+		if (parent == null) {
+			return;
+		}
+
+		synchronized (parent) {
+			Path[] children = parent.children;
+			if (children == null) {
+				return;
+			}
+			List<Path> remaining = new ArrayList<Path>(children.length);
+			for (Path child : children) {
+				if (!child.toString().equals(path)) {
+					remaining.add(child);
+				}
+			}
+			parent.children = remaining.toArray(new Path[remaining.size()]);
+		}
+		refreshAggregate(parent);
+		fireRemoved(path);
+	}
+
+	/**
+	 * Adds the path to the cached listing of its parent, replacing an entry
+	 * of the same name. Does nothing if the parent has not been listed yet.
+	 * 
+	 * @param child
+	 */
+	private void addChild(Path child) {
+		String p = child.toString();
+		PathInfo parent = infoFor(parentOf(p));
+		if (parent == null) {
+			return;
+		}
+
+		synchronized (parent) {
+			Path[] children = parent.children;
+			if (children == null) {
+				return;
+			}
+			Path[] updated = null;
+			for (int i = 0; i < children.length; i++) {
+				if (children[i].toString().equals(p)) {
+					updated = new Path[children.length];
+					System.arraycopy(children, 0, updated, 0, children.length);
+					updated[i] = child;
+					break;
+				}
+			}
+			if (updated == null) {
+				updated = new Path[children.length + 1];
+				System.arraycopy(children, 0, updated, 0, children.length);
+				updated[children.length] = child;
+			}
+			parent.children = updated;
+		}
+		refreshAggregate(parent);
+		fireAdded(child);
+	}
+
+	/**
+	 * Caches the metadata of a listed or looked up path. A directory that is
+	 * cached already keeps its entry, so that its own listing and the totals
+	 * below it survive listing its parent.
+	 * 
+	 * @param path
+	 * @param encFSFileInfo
+	 * @return the path object to hand out, the one of the kept entry if any
+	 */
+	private Path createCacheEntry(Path path, EncFSFileInfo encFSFileInfo) {
+		String p = path.toString();
+		PathInfo existing = isSessionPath(p) ? sessionCache.get(p) : cache.get(p);
+		if (existing != null && existing.isDirectory && encFSFileInfo.isDirectory()) {
+			return existing.path;
+		}
 		LOG.info("Creating cache entry for unencrypted path <" + path + ">");
 		PathInfo info = new PathInfo();
 		info.isDirectory = encFSFileInfo.isDirectory();
 		info.lastModified = encFSFileInfo.getLastModified();
 		info.path = path;
 		info.size = encFSFileInfo.getSize();
-		cache.put(path.toString(), info);
+		putInfo(p, info);
+		return path;
 	}
 
-	private void createCacheEntry(Path path, EncFSFile encFSFile) {
+	/**
+	 * See {@link #createCacheEntry(Path, EncFSFileInfo)}.
+	 * 
+	 * @param path
+	 * @param encFSFile
+	 * @return
+	 */
+	private Path createCacheEntry(Path path, EncFSFile encFSFile) {
+		String p = path.toString();
+		encFSFileCache.put(p, encFSFile);
+		PathInfo existing = sessionCache.get(p);
+		if (existing != null && existing.isDirectory && encFSFile.isDirectory()) {
+			return existing.path;
+		}
 		LOG.info("Creating cache entry for encrypted path <" + path + ">");
 		PathInfo info = new PathInfo();
 		info.isDirectory = encFSFile.isDirectory();
 		info.lastModified = encFSFile.getLastModified();
 		info.path = path;
 		info.size = encFSFile.getLength();
+		path.info = info;
+		sessionCache.put(p, info);
+		return path;
+	}
+
+	/**
+	 * Looks up cached metadata. Paths within unlocked volumes are only looked
+	 * up in this session, the shared cache may still hold their encrypted
+	 * counterparts.
+	 * 
+	 * @param path
+	 * @return
+	 */
+	private PathInfo infoFor(String path) {
+		PathInfo info = sessionCache.get(path);
+		if (info != null || isSessionPath(path)) {
+			return info;
+		}
+		return cache.get(path);
+	}
+
+	/**
+	 * Like {@link #infoFor(String)}, but falls back to the metadata last
+	 * stored for this path object if the cache has dropped it meanwhile, e.g.
+	 * after the account cache was invalidated while a view still shows it.
+	 * 
+	 * @param path
+	 * @return <code>null</code> if the path was never listed
+	 */
+	private PathInfo knownInfo(Path path) {
+		PathInfo info = infoFor(path.toString());
+		return info != null ? info : path.info;
+	}
+
+	/**
+	 * Stores metadata in this session if the path lies within an unlocked
+	 * volume, in the shared cache otherwise.
+	 * 
+	 * @param path
+	 * @param info
+	 */
+	private void putInfo(String path, PathInfo info) {
+		info.path.info = info;
+		if (isSessionPath(path)) {
+			sessionCache.put(path, info);
+		} else {
+			cache.put(path, info);
+		}
+	}
 
-		cache.put(path.toString(), info);
-		encFSFileCache.put(path.toString(), encFSFile);
+	/**
+	 * Tells whether metadata of the path is private to this session. A volume
+	 * root is listed by its parent, so it belongs where its parent does; the
+	 * plaintext copy of an unlocked root is put into this session explicitly.
+	 * 
+	 * @param path
+	 * @return
+	 */
+	private boolean isSessionPath(String path) {
+		EncFSPath volume = unlockedRootForPath(path);
+		if (volume == null) {
+			return false;
+		}
+		if (!volume.root.equals(path)) {
+			return true;
+		}
+		String parent = parentOf(path);
+		return !parent.equals(path) && isSessionPath(parent);
 	}
 
 	/**
@@ -379,13 +1392,20 @@ public class Files {
 	 * @return
 	 */
 	private EncFSPath unlockedRootForPath(String path) {
+		// walk up the path, so the innermost volume wins and the cost does not
+		// grow with the number of unlocked volumes
 		String root = null;
-		for (Entry<String, EncFSVolume> entry : encfsVolumes.entrySet()) {
-			String volRoot = entry.getKey();
-			if (path.equals(volRoot) || path.startsWith(volRoot.concat("/"))) {
-				root = entry.getKey();
+		String candidate = path;
+		while (true) {
+			if (encfsVolumes.containsKey(candidate)) {
+				root = candidate;
+				break;
+			}
+			int slash = candidate.lastIndexOf('/');
+			if (slash <= 0) {
 				break;
 			}
+			candidate = candidate.substring(0, slash);
 		}
 		if (root != null) {
 			EncFSPath result = new EncFSPath();
@@ -398,23 +1418,45 @@ public class Files {
 		return null;
 	}
 
+	/**
+	 * Removes the session's cache entries for the given path and its children.
+	 * The shared cache is left untouched, other sessions may still browse the
+	 * encrypted names.
+	 * 
+	 * @param path
+	 */
 	private void removeChildrenFromCache(String path) {
 		LOG.info("Removing cache entries for path <" + path + "> and its children");
-		PathInfo info = cache.get(path);
-		info.children = null;
-
 		List<String> toRemove = new ArrayList<String>();
 		String testString = path;
-		for (String key : cache.keySet()) {
+		for (String key : sessionCache.keySet()) {
 			if (key.equals(testString) || key.startsWith(testString.concat("/"))) {
 				toRemove.add(key);
 			}
 		}
 		for (String key : toRemove) {
-			cache.remove(key);
+			sessionCache.remove(key);
+			encFSFileCache.remove(key);
+		}
+		fireRemoved(path);
+	}
+
+	private void fireListed(Path dir, Path[] children) {
+		for (ListingListener listener : listeners) {
+			listener.onListed(dir, children);
+		}
+	}
+
+	private void fireAdded(Path path) {
+		for (ListingListener listener : listeners) {
+			listener.onAdded(path);
 		}
+	}
 
-		cache.put(path, info);
+	private void fireRemoved(String path) {
+		for (ListingListener listener : listeners) {
+			listener.onRemoved(path);
+		}
 	}
 
 	/**
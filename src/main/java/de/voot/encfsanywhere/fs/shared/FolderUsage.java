@@ -0,0 +1,63 @@
+/*
+  	Copyright (C) 2013 Marco Schulte
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.voot.encfsanywhere.fs.shared;
+
+/**
+ * Totals over a directory's subtree, as far as it has been listed. Sizes are
+ * plaintext sizes within unlocked volumes.
+ */
+public class FolderUsage {
+
+	private final long bytes;
+	private final long fileCount;
+	private final long lastModified;
+	private final boolean complete;
+
+	public FolderUsage(long bytes, long fileCount, long lastModified, boolean complete) {
+		this.bytes = bytes;
+		this.fileCount = fileCount;
+		this.lastModified = lastModified;
+		this.complete = complete;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	public long getFileCount() {
+		return fileCount;
+	}
+
+	/**
+	 * Returns the latest modification time of any file within the subtree.
+	 * 
+	 * @return
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * Returns <code>true</code> once every directory within the subtree has
+	 * been listed. Until then the totals are lower bounds.
+	 * 
+	 * @return
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+}
@@ -0,0 +1,48 @@
+/*
+  	Copyright (C) 2013 Marco Schulte
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.voot.encfsanywhere.fs.shared;
+
+/**
+ * Notified by {@link Files} whenever its cached view of the directory tree
+ * changes.
+ */
+public interface ListingListener {
+
+	/**
+	 * A directory has been listed, <code>children</code> is its complete
+	 * content.
+	 * 
+	 * @param dir
+	 * @param children
+	 */
+	public void onListed(Path dir, Path[] children);
+
+	/**
+	 * An entry has been added to a listed directory, e.g. by an upload, move
+	 * or copy.
+	 * 
+	 * @param path
+	 */
+	public void onAdded(Path path);
+
+	/**
+	 * The given path and everything below it is gone from the cache.
+	 * 
+	 * @param path
+	 */
+	public void onRemoved(String path);
+}
@@ -0,0 +1,36 @@
+/*
+  	Copyright (C) 2013 Marco Schulte
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.voot.encfsanywhere.fs.shared;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Creates the maps {@link Files} keeps its state in. The default
+ * {@link #HASH_MAP} is meant for single-threaded use in the browser.
+ */
+public interface MapFactory {
+
+	public static final MapFactory HASH_MAP = new MapFactory() {
+		@Override
+		public <K, V> Map<K, V> newMap() {
+			return new HashMap<K, V>();
+		}
+	};
+
+	public <K, V> Map<K, V> newMap();
+}
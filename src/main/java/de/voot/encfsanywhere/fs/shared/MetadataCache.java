@@ -0,0 +1,207 @@
+/*
+  	Copyright (C) 2013 Marco Schulte
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.voot.encfsanywhere.fs.shared;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Metadata of paths outside of unlocked encfs volumes. A cache can be shared
+ * by several {@link Files} instances working on the same account, provided
+ * it has been created with a thread-safe {@link MapFactory}. Entries within
+ * unlocked volumes never end up here, they are kept per {@link Files}
+ * instance.
+ * 
+ * With a {@link Partitioner} the entries are kept in separate partitions,
+ * so that scans for a subtree only touch the partitions it spans and a
+ * partition can be dropped as a whole. The cache registers with the
+ * partitioner, call {@link #detach()} once it is no longer used.
+ */
+public class MetadataCache {
+
+	private static final Partitioner SINGLE_PARTITION = new Partitioner() {
+		@Override
+		public String partitionFor(String path) {
+			return "";
+		}
+
+		@Override
+		public void addListener(Listener listener) {
+			// partitions never change
+		}
+
+		@Override
+		public void removeListener(Listener listener) {
+			// never registered
+		}
+	};
+
+	private final MapFactory mapFactory;
+	private final Partitioner partitioner;
+	private final Map<String, Map<String, PathInfo>> partitions;
+	private final Partitioner.Listener listener = new Partitioner.Listener() {
+		@Override
+		public void onRepartitioned(String path) {
+			repartition(path);
+		}
+	};
+
+	public MetadataCache() {
+		this(MapFactory.HASH_MAP);
+	}
+
+	public MetadataCache(MapFactory mapFactory) {
+		this(mapFactory, SINGLE_PARTITION);
+	}
+
+	public MetadataCache(MapFactory mapFactory, Partitioner partitioner) {
+		this.mapFactory = mapFactory;
+		this.partitioner = partitioner;
+		this.partitions = mapFactory.newMap();
+		partitioner.addListener(listener);
+	}
+
+	/**
+	 * Stops following changes of the partitioner, so that a long-lived
+	 * partitioner does not keep this cache reachable.
+	 */
+	public void detach() {
+		partitioner.removeListener(listener);
+	}
+
+	PathInfo get(String path) {
+		Map<String, PathInfo> partition = partitions.get(partitioner.partitionFor(path));
+		return partition != null ? partition.get(path) : null;
+	}
+
+	void put(String path, PathInfo info) {
+		partition(partitioner.partitionFor(path)).put(path, info);
+	}
+
+	void remove(String path) {
+		Map<String, PathInfo> partition = partitions.get(partitioner.partitionFor(path));
+		if (partition != null) {
+			partition.remove(path);
+		}
+	}
+
+	/**
+	 * Returns the cached paths that may lie within the given path, taken from
+	 * the partitions the subtree spans. Callers still have to check the
+	 * prefix.
+	 * 
+	 * @param path
+	 * @return
+	 */
+	List<String> pathsWithin(String path) {
+		String own = partitioner.partitionFor(path);
+		String prefix = path.endsWith("/") ? path : path + "/";
+		List<String> result = new ArrayList<String>();
+		for (Map.Entry<String, Map<String, PathInfo>> entry : partitions.entrySet()) {
+			String key = entry.getKey();
+			if (key.equals(own) || key.startsWith(prefix)) {
+				result.addAll(entry.getValue().keySet());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Moves the entries at and below the path into the partitions they belong
+	 * to now, so that live {@link Path}s keep resolving. Their listings came
+	 * from the provider responsible before, so moved directories and the
+	 * parent of the path are marked as not listed and are listed again on
+	 * their next use. Entries already present in the new partition are newer
+	 * and win. Emptied partitions are kept, concurrent {@link #put} calls may
+	 * still be writing to them; only {@link #clearPartition(String)} drops
+	 * partitions.
+	 * 
+	 * @param path
+	 */
+	void repartition(String path) {
+		String prefix = path.endsWith("/") ? path : path + "/";
+		List<PathInfo> moved = new ArrayList<PathInfo>();
+		synchronized (this) {
+			List<String> keys = new ArrayList<String>(partitions.keySet());
+			for (String key : keys) {
+				Map<String, PathInfo> partition = partitions.get(key);
+				if (partition == null) {
+					continue;
+				}
+				for (String p : new ArrayList<String>(partition.keySet())) {
+					if (!p.equals(path) && !p.startsWith(prefix)) {
+						continue;
+					}
+					String target = partitioner.partitionFor(p);
+					if (target.equals(key)) {
+						continue;
+					}
+					PathInfo info = partition.remove(p);
+					if (info == null) {
+						continue;
+					}
+					moved.add(info);
+					Map<String, PathInfo> targetPartition = partition(target);
+					if (!targetPartition.containsKey(p)) {
+						targetPartition.put(p, info);
+					}
+				}
+			}
+		}
+
+		if (!"/".equals(path)) {
+			String parent = path.substring(0, path.lastIndexOf("/"));
+			PathInfo parentInfo = get(parent.isEmpty() ? "/" : parent);
+			if (parentInfo != null) {
+				moved.add(parentInfo);
+			}
+		}
+		for (PathInfo info : moved) {
+			synchronized (info) {
+				info.children = null;
+			}
+		}
+	}
+
+	/**
+	 * Drops all entries of a partition.
+	 * 
+	 * @param partition
+	 */
+	public void clearPartition(String partition) {
+		partitions.remove(partition);
+	}
+
+	public void clear() {
+		partitions.clear();
+	}
+
+	private Map<String, PathInfo> partition(String key) {
+		Map<String, PathInfo> partition = partitions.get(key);
+		if (partition == null) {
+			synchronized (this) {
+				partition = partitions.get(key);
+				if (partition == null) {
+					partition = mapFactory.newMap();
+					partitions.put(key, partition);
+				}
+			}
+		}
+		return partition;
+	}
+}
@@ -0,0 +1,60 @@
+/*
+  	Copyright (C) 2013 Marco Schulte
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.voot.encfsanywhere.fs.shared;
+
+/**
+ * Splits a {@link MetadataCache} into partitions, e.g. one per mounted
+ * provider.
+ */
+public interface Partitioner {
+
+	/**
+	 * Told when paths may have moved to another partition.
+	 */
+	public interface Listener {
+		/**
+		 * The partition of the path and of everything below it may have
+		 * changed.
+		 * 
+		 * @param path
+		 */
+		public void onRepartitioned(String path);
+	}
+
+	/**
+	 * Returns the key of the partition the path belongs to.
+	 * 
+	 * @param path
+	 * @return
+	 */
+	public String partitionFor(String path);
+
+	/**
+	 * Registers a listener, usually the {@link MetadataCache} using this
+	 * partitioner.
+	 * 
+	 * @param listener
+	 */
+	public void addListener(Listener listener);
+
+	/**
+	 * Removes a listener registered before.
+	 * 
+	 * @param listener
+	 */
+	public void removeListener(Listener listener);
+}
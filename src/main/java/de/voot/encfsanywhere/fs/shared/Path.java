@@ -20,6 +20,12 @@ public class Path {
 
 	private String path;
 
+	/**
+	 * Metadata last stored for this path, used by {@link Files} when the cache
+	 * has dropped the entry.
+	 */
+	volatile PathInfo info;
+
 	protected Path(String path) {
 		this.path = path;
 	}
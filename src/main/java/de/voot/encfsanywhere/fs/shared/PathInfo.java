@@ -0,0 +1,59 @@
+/*
+  	Copyright (C) 2013 Marco Schulte
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.voot.encfsanywhere.fs.shared;
+
+/**
+ * Cached metadata of a single path. Instances may be shared between sessions
+ * through a {@link MetadataCache}, so fields that change after the entry has
+ * been published are volatile.
+ */
+class PathInfo {
+	Path path;
+	long lastModified;
+	boolean isDirectory;
+	long size;
+	volatile Boolean isEncFSRoot;
+	volatile Path[] children;
+
+	// aggregates over the subtree of a listed directory, guarded by the lock of
+	// this instance, see Files.refreshAggregate
+	long subtreeBytes;
+	long subtreeFiles;
+	long subtreeLastModified;
+	int incompleteChildDirs;
+
+	// aggregates of this directory as last accounted for by its parent
+	boolean reported;
+	long reportedBytes;
+	long reportedFiles;
+	long reportedLastModified;
+	boolean reportedComplete;
+
+	boolean isComplete() {
+		return children != null && incompleteChildDirs == 0;
+	}
+
+	PathInfo copyWithoutChildren() {
+		PathInfo copy = new PathInfo();
+		copy.path = path;
+		copy.lastModified = lastModified;
+		copy.isDirectory = isDirectory;
+		copy.size = size;
+		copy.isEncFSRoot = isEncFSRoot;
+		return copy;
+	}
+}
@@ -0,0 +1,81 @@
+/*
+  	Copyright (C) 2013 Marco Schulte
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.voot.encfsanywhere.fs.shared;
+
+/**
+ * Criteria for {@link FileIndex#search(SearchQuery)}. Names are matched case
+ * insensitive.
+ */
+public class SearchQuery {
+
+	String text;
+	boolean prefixOnly = false;
+	boolean includeDirectories = true;
+	long minSize = 0;
+	long maxSize = Long.MAX_VALUE;
+	long modifiedAfter = Long.MIN_VALUE;
+	long modifiedBefore = Long.MAX_VALUE;
+	int limit = Integer.MAX_VALUE;
+
+	/**
+	 * @param text
+	 *            searched within the (decrypted) names
+	 */
+	public SearchQuery(String text) {
+		this.text = text.toLowerCase();
+	}
+
+	/**
+	 * Only match names starting with the text.
+	 * 
+	 * @return
+	 */
+	public SearchQuery prefixOnly() {
+		prefixOnly = true;
+		return this;
+	}
+
+	public SearchQuery filesOnly() {
+		includeDirectories = false;
+		return this;
+	}
+
+	public SearchQuery withMinSize(long minSize) {
+		this.minSize = minSize;
+		return this;
+	}
+
+	public SearchQuery withMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+		return this;
+	}
+
+	public SearchQuery modifiedAfter(long lastModified) {
+		this.modifiedAfter = lastModified;
+		return this;
+	}
+
+	public SearchQuery modifiedBefore(long lastModified) {
+		this.modifiedBefore = lastModified;
+		return this;
+	}
+
+	public SearchQuery withLimit(int limit) {
+		this.limit = limit;
+		return this;
+	}
+}
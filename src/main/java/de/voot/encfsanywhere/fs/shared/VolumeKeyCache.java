@@ -0,0 +1,165 @@
+/*
+  	Copyright (C) 2013 Marco Schulte
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.voot.encfsanywhere.fs.shared;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import de.voot.encfsgwt.shared.jre.InputStream;
+
+/**
+ * Remembers the derived keys of unlocked encfs volumes, so that a volume can
+ * be unlocked again without running the password key derivation. Keys are
+ * held in memory only and are zeroed when the volume config changes, on
+ * {@link #clear()} and once they have expired. Expired keys are purged on
+ * every access to the cache; callers holding a cache for long idle periods
+ * can call {@link #purgeExpired()} periodically.
+ * 
+ * A cache belongs to a single user session. It may outlive the {@link Files}
+ * instances of that session, but must never be shared between users.
+ */
+public class VolumeKeyCache {
+
+	private static final Logger LOG = Logger.getLogger("de.voot.encfsanywhere.fs.shared.VolumeKeyCache");
+
+	private class CachedKey {
+		String config;
+		byte[] key;
+		long expiresAt;
+	}
+
+	private final Map<String, CachedKey> keys;
+	private final long timeToLive;
+
+	/**
+	 * @param timeToLive
+	 *            milliseconds a derived key may be reused after it has been
+	 *            derived from the password
+	 */
+	public VolumeKeyCache(long timeToLive) {
+		this(timeToLive, MapFactory.HASH_MAP);
+	}
+
+	public VolumeKeyCache(long timeToLive, MapFactory mapFactory) {
+		this.timeToLive = timeToLive;
+		this.keys = mapFactory.newMap();
+	}
+
+	/**
+	 * Returns a copy of the cached key or <code>null</code> if there is none,
+	 * if it has expired or if it belongs to a different config.
+	 * 
+	 * @param root
+	 * @param config
+	 *            content of the volume config, see
+	 *            {@link #readConfig(InputStream)}
+	 * @return
+	 */
+	byte[] get(String root, String config) {
+		purgeExpired();
+		CachedKey cached = keys.get(root);
+		if (cached == null) {
+			return null;
+		}
+		if (!cached.config.equals(config)) {
+			LOG.info("Discarding stale key for volume <" + root + ">");
+			remove(root);
+			return null;
+		}
+		return copy(cached.key);
+	}
+
+	void put(String root, String config, byte[] key) {
+		purgeExpired();
+		CachedKey cached = new CachedKey();
+		cached.config = config;
+		cached.key = copy(key);
+		cached.expiresAt = System.currentTimeMillis() + timeToLive;
+		CachedKey previous = keys.put(root, cached);
+		if (previous != null) {
+			Arrays.fill(previous.key, (byte) 0);
+		}
+	}
+
+	void remove(String root) {
+		CachedKey cached = keys.remove(root);
+		if (cached != null) {
+			Arrays.fill(cached.key, (byte) 0);
+		}
+	}
+
+	public boolean contains(String root) {
+		purgeExpired();
+		return keys.containsKey(root);
+	}
+
+	/**
+	 * Zeroes and forgets all keys that have expired.
+	 */
+	public void purgeExpired() {
+		long now = System.currentTimeMillis();
+		for (String root : new ArrayList<String>(keys.keySet())) {
+			CachedKey cached = keys.get(root);
+			if (cached != null && cached.expiresAt < now) {
+				LOG.info("Discarding expired key for volume <" + root + ">");
+				remove(root);
+			}
+		}
+	}
+
+	/**
+	 * Zeroes and forgets all keys.
+	 */
+	public void clear() {
+		LOG.info("Clearing volume keys");
+		for (String root : new ArrayList<String>(keys.keySet())) {
+			remove(root);
+		}
+	}
+
+	private static byte[] copy(byte[] key) {
+		byte[] copy = new byte[key.length];
+		System.arraycopy(key, 0, copy, 0, key.length);
+		return copy;
+	}
+
+	/**
+	 * Returns the whole content of a volume config, so that a cached key is
+	 * not used any more once the config (and with it the key) changed in any
+	 * way. Configs are a few kilobytes, so they are compared as they are
+	 * instead of through a digest.
+	 * 
+	 * @param config
+	 * @return
+	 * @throws IOException
+	 */
+	static String readConfig(InputStream config) throws IOException {
+		StringBuilder content = new StringBuilder();
+		try {
+			int b;
+			while ((b = config.read()) != -1) {
+				content.append((char) b);
+			}
+		} finally {
+			config.close();
+		}
+		return content.toString();
+	}
+}
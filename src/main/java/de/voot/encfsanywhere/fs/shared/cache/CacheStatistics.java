@@ -0,0 +1,86 @@
+/*
+  	Copyright (C) 2013 Marco Schulte
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.voot.encfsanywhere.fs.shared.cache;
+
+/**
+ * Snapshot of the counters of a content cache.
+ */
+public class CacheStatistics {
+
+	private final long memoryHits;
+	private final long diskHits;
+	private final long misses;
+	private final long bytesSaved;
+	private final long memoryEvictions;
+	private final long diskEvictions;
+
+	public CacheStatistics(long memoryHits, long diskHits, long misses, long bytesSaved, long memoryEvictions, long diskEvictions) {
+		this.memoryHits = memoryHits;
+		this.diskHits = diskHits;
+		this.misses = misses;
+		this.bytesSaved = bytesSaved;
+		this.memoryEvictions = memoryEvictions;
+		this.diskEvictions = diskEvictions;
+	}
+
+	public long getMemoryHits() {
+		return memoryHits;
+	}
+
+	public long getDiskHits() {
+		return diskHits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the share of opened files served without downloading them, or
+	 * 0 if nothing has been opened yet.
+	 * 
+	 * @return
+	 */
+	public double getHitRatio() {
+		long hits = memoryHits + diskHits;
+		long total = hits + misses;
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	/**
+	 * Returns the number of bytes that did not have to be downloaded.
+	 * 
+	 * @return
+	 */
+	public long getBytesSaved() {
+		return bytesSaved;
+	}
+
+	public long getMemoryEvictions() {
+		return memoryEvictions;
+	}
+
+	public long getDiskEvictions() {
+		return diskEvictions;
+	}
+
+	@Override
+	public String toString() {
+		return "hit ratio " + getHitRatio() + ", " + memoryHits + " memory hits, " + diskHits + " disk hits, " + misses + " misses, " + bytesSaved
+				+ " bytes saved, " + memoryEvictions + " memory evictions, " + diskEvictions + " disk evictions";
+	}
+}
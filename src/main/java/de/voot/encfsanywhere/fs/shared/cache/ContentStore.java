@@ -0,0 +1,48 @@
+/*
+  	Copyright (C) 2013 Marco Schulte
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.voot.encfsanywhere.fs.shared.cache;
+
+/**
+ * One tier of the content cache. Keys identify a revision of a file within a
+ * namespace, so an entry never becomes stale, it only becomes unused, and a
+ * store can be shared between accounts.
+ */
+public interface ContentStore {
+
+	/**
+	 * Returns the content stored under the key or <code>null</code>.
+	 * 
+	 * @param key
+	 * @return
+	 */
+	public byte[] get(String key);
+
+	/**
+	 * Stores the content, evicting other entries if the byte budget would be
+	 * exceeded. Content larger than the budget is not stored.
+	 * 
+	 * @param key
+	 * @param content
+	 */
+	public void put(String key, byte[] content);
+
+	public void remove(String key);
+
+	public long getEvictionCount();
+
+	public long getSize();
+}
@@ -0,0 +1,82 @@
+/*
+  	Copyright (C) 2013 Marco Schulte
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.voot.encfsanywhere.fs.shared.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps content in memory, evicting the least recently used entries once the
+ * byte budget is exceeded.
+ */
+public class MemoryContentStore implements ContentStore {
+
+	private final long budget;
+	private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+	private long size = 0;
+	private long evictions = 0;
+
+	/**
+	 * @param budget
+	 *            maximum number of bytes held
+	 */
+	public MemoryContentStore(long budget) {
+		this.budget = budget;
+	}
+
+	@Override
+	public synchronized byte[] get(String key) {
+		return entries.get(key);
+	}
+
+	@Override
+	public synchronized void put(String key, byte[] content) {
+		if (content.length > budget) {
+			return;
+		}
+		remove(key);
+		entries.put(key, content);
+		size += content.length;
+
+		Iterator<Map.Entry<String, byte[]>> it = entries.entrySet().iterator();
+		while (size > budget && it.hasNext()) {
+			Map.Entry<String, byte[]> eldest = it.next();
+			size -= eldest.getValue().length;
+			it.remove();
+			evictions++;
+		}
+	}
+
+	@Override
+	public synchronized void remove(String key) {
+		byte[] removed = entries.remove(key);
+		if (removed != null) {
+			size -= removed.length;
+		}
+	}
+
+	@Override
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	@Override
+	public synchronized long getSize() {
+		return size;
+	}
+}
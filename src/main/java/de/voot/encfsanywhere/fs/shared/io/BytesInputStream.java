@@ -0,0 +1,81 @@
+/*
+  	Copyright (C) 2013 Marco Schulte
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.voot.encfsanywhere.fs.shared.io;
+
+import java.io.IOException;
+
+import de.voot.encfsgwt.shared.jre.InputStream;
+
+public class BytesInputStream extends InputStream {
+
+	private final byte[] bytes;
+	private int pos = 0;
+
+	public BytesInputStream(byte[] bytes) {
+		this.bytes = bytes;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (pos < bytes.length) {
+			return bytes[pos++] & 0xff;
+		}
+		return -1;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (pos >= bytes.length) {
+			return -1;
+		}
+		int count = Math.min(len, bytes.length - pos);
+		System.arraycopy(bytes, pos, b, off, count);
+		pos += count;
+		return count;
+	}
+
+	/**
+	 * Reads the whole stream and closes it.
+	 * 
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public static byte[] readFully(InputStream in) throws IOException {
+		byte[] buffer = new byte[64 * 1024];
+		int length = 0;
+		try {
+			int count;
+			while ((count = in.read(buffer, length, buffer.length - length)) != -1) {
+				length += count;
+				if (length == buffer.length) {
+					byte[] grown = new byte[buffer.length * 2];
+					System.arraycopy(buffer, 0, grown, 0, length);
+					buffer = grown;
+				}
+			}
+		} finally {
+			in.close();
+		}
+		byte[] result = new byte[length];
+		System.arraycopy(buffer, 0, result, 0, length);
+		return result;
+	}
+}
@@ -0,0 +1,297 @@
+/*
+  	Copyright (C) 2013 Marco Schulte
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.voot.encfsanywhere.fs.shared.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import com.google.gwt.core.client.Callback;
+
+import de.voot.dropboxgwt.client.DropboxWrapper;
+import de.voot.dropboxgwt.client.overlay.ApiError;
+import de.voot.dropboxgwt.client.overlay.ArrayBuffer;
+import de.voot.dropboxgwt.client.overlay.Stat;
+import de.voot.dropboxgwt.client.overlay.UploadCursor;
+import de.voot.encfsanywhere.fs.shared.providers.DropboxFileProvider;
+import de.voot.encfsgwt.shared.jre.OutputStream;
+import de.voot.encfsgwt.shared.mrpdaemon.EncFSFileInfo;
+
+/**
+ * Uploads everything written to it through a Dropbox chunked upload. Chunks
+ * are sent one after another as they fill up, at most
+ * <code>maxInFlight</code> full chunks are buffered at any time if the writer
+ * respects {@link #whenWritable(Callback)}.
+ */
+public class DropboxOutputStream extends OutputStream implements UploadSession {
+
+	private static final Logger LOG = Logger.getLogger("de.voot.encfsanywhere.fs.shared.io.DropboxOutputStream");
+
+	private final DropboxWrapper dropboxWrapper;
+	private final String path;
+	private final int chunkSize;
+	private final int maxInFlight;
+
+	private final LinkedList<ArrayBuffer> pending = new LinkedList<ArrayBuffer>();
+	private final List<Callback<Void, IOException>> writableCallbacks = new ArrayList<Callback<Void, IOException>>();
+	private final List<Callback<EncFSFileInfo, IOException>> committedCallbacks = new ArrayList<Callback<EncFSFileInfo, IOException>>();
+
+	private ArrayBuffer buffer;
+	private int pos = 0;
+	private boolean anyChunk = false;
+	private UploadCursor cursor;
+	private boolean uploading = false;
+	private boolean closed = false;
+	private boolean aborted = false;
+	private IOException failure;
+	private EncFSFileInfo committed;
+
+	public DropboxOutputStream(DropboxWrapper dropboxWrapper, String path, int chunkSize, int maxInFlight) {
+		this.dropboxWrapper = dropboxWrapper;
+		this.path = path;
+		this.chunkSize = chunkSize;
+		this.maxInFlight = maxInFlight;
+		buffer = ArrayBuffer.create(chunkSize);
+	}
+
+	@Override
+	public String getPath() {
+		return path;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+		buffer.setByte(pos++, (byte) b);
+		if (pos == chunkSize) {
+			enqueue(buffer);
+			buffer = ArrayBuffer.create(chunkSize);
+			pos = 0;
+		}
+	}
+
+	/**
+	 * Copies the data into the chunk buffer in blocks, a single call per chunk
+	 * instead of one per byte.
+	 */
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+		while (len > 0) {
+			int count = Math.min(len, chunkSize - pos);
+			buffer.setBytes(pos, b, off, count);
+			pos += count;
+			off += count;
+			len -= count;
+			if (pos == chunkSize) {
+				enqueue(buffer);
+				buffer = ArrayBuffer.create(chunkSize);
+				pos = 0;
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (pos > 0 || !anyChunk) {
+			enqueue(buffer.slice(0, pos));
+		}
+		buffer = null;
+	}
+
+	@Override
+	public void whenWritable(Callback<Void, IOException> callback) {
+		if (failure != null) {
+			callback.onFailure(failure);
+		} else if (pending.size() < maxInFlight) {
+			callback.onSuccess(null);
+		} else {
+			writableCallbacks.add(callback);
+		}
+	}
+
+	@Override
+	public void whenCommitted(Callback<EncFSFileInfo, IOException> callback) {
+		if (committed != null) {
+			callback.onSuccess(committed);
+		} else if (failure != null) {
+			callback.onFailure(failure);
+		} else {
+			committedCallbacks.add(callback);
+		}
+	}
+
+	@Override
+	public boolean isFailed() {
+		return failure != null;
+	}
+
+	@Override
+	public boolean isAborted() {
+		return aborted;
+	}
+
+	@Override
+	public void resume() {
+		if (failure == null || aborted) {
+			return;
+		}
+		LOG.info("Resuming upload of <" + path + ">");
+		failure = null;
+		uploadNext();
+	}
+
+	@Override
+	public void abort() {
+		LOG.info("Aborting upload of <" + path + ">");
+		aborted = true;
+		closed = true;
+		pending.clear();
+		buffer = null;
+		fail(new IOException("Upload aborted"));
+		finished();
+	}
+
+	/**
+	 * Called once the upload has been committed or aborted. Nothing is left
+	 * to resume at that point.
+	 */
+	protected void finished() {
+	}
+
+	private void enqueue(ArrayBuffer chunk) {
+		anyChunk = true;
+		pending.add(chunk);
+		uploadNext();
+	}
+
+	private void uploadNext() {
+		if (uploading || failure != null || aborted) {
+			return;
+		}
+		if (pending.isEmpty()) {
+			if (closed) {
+				commit();
+			}
+			return;
+		}
+
+		uploading = true;
+		final ArrayBuffer chunk = pending.peek();
+		dropboxWrapper.resumableUploadStep(chunk, cursor, new Callback<UploadCursor, ApiError>() {
+			@Override
+			public void onFailure(ApiError reason) {
+				uploading = false;
+				fail(new IOException(reason.getResponseText()));
+			}
+
+			@Override
+			public void onSuccess(UploadCursor result) {
+				uploading = false;
+				cursor = result;
+				pending.poll();
+				notifyWritable();
+				uploadNext();
+			}
+		});
+	}
+
+	private void commit() {
+		uploading = true;
+		beforeCommit(new Callback<Void, IOException>() {
+			@Override
+			public void onFailure(IOException reason) {
+				uploading = false;
+				fail(reason);
+			}
+
+			@Override
+			public void onSuccess(Void result) {
+				finish();
+			}
+		});
+	}
+
+	/**
+	 * Called before the upload is committed. The commit waits until the
+	 * callback has been called.
+	 * 
+	 * @param callback
+	 */
+	protected void beforeCommit(Callback<Void, IOException> callback) {
+		callback.onSuccess(null);
+	}
+
+	private void finish() {
+		dropboxWrapper.resumableUploadFinish(path, cursor, new Callback<Stat, ApiError>() {
+			@Override
+			public void onFailure(ApiError reason) {
+				uploading = false;
+				fail(new IOException(reason.getResponseText()));
+			}
+
+			@Override
+			public void onSuccess(Stat result) {
+				uploading = false;
+				LOG.info("Committed upload of <" + path + ">");
+				committed = DropboxFileProvider.statToFileInfo(result);
+				List<Callback<EncFSFileInfo, IOException>> callbacks = new ArrayList<Callback<EncFSFileInfo, IOException>>(committedCallbacks);
+				committedCallbacks.clear();
+				for (Callback<EncFSFileInfo, IOException> callback : callbacks) {
+					callback.onSuccess(committed);
+				}
+				finished();
+			}
+		});
+	}
+
+	private void notifyWritable() {
+		if (pending.size() >= maxInFlight || writableCallbacks.isEmpty()) {
+			return;
+		}
+		List<Callback<Void, IOException>> callbacks = new ArrayList<Callback<Void, IOException>>(writableCallbacks);
+		writableCallbacks.clear();
+		for (Callback<Void, IOException> callback : callbacks) {
+			callback.onSuccess(null);
+		}
+	}
+
+	private void fail(IOException reason) {
+		LOG.warning("Upload of <" + path + "> failed: " + reason.getMessage());
+		failure = reason;
+		List<Callback<Void, IOException>> writable = new ArrayList<Callback<Void, IOException>>(writableCallbacks);
+		List<Callback<EncFSFileInfo, IOException>> committing = new ArrayList<Callback<EncFSFileInfo, IOException>>(committedCallbacks);
+		writableCallbacks.clear();
+		committedCallbacks.clear();
+		for (Callback<Void, IOException> callback : writable) {
+			callback.onFailure(reason);
+		}
+		for (Callback<EncFSFileInfo, IOException> callback : committing) {
+			callback.onFailure(reason);
+		}
+	}
+}
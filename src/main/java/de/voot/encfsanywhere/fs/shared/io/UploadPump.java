@@ -0,0 +1,125 @@
+/*
+  	Copyright (C) 2013 Marco Schulte
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.voot.encfsanywhere.fs.shared.io;
+
+import java.io.IOException;
+
+import com.google.gwt.core.client.Callback;
+
+import de.voot.encfsgwt.shared.jre.InputStream;
+import de.voot.encfsgwt.shared.jre.OutputStream;
+import de.voot.encfsgwt.shared.mrpdaemon.EncFSFileInfo;
+
+/**
+ * Copies an input stream into the output stream of an upload, handing over
+ * the next piece only when the upload session has room for it. The content
+ * is therefore never buffered as a whole, not even when the output stream
+ * encrypts into the upload stream.
+ */
+public class UploadPump {
+
+	private static final int PIECE_SIZE = 64 * 1024;
+
+	private final InputStream in;
+	private final OutputStream out;
+	private final UploadSession session;
+	private final byte[] piece = new byte[PIECE_SIZE];
+	private Callback<EncFSFileInfo, IOException> callback;
+	private boolean drained = false;
+
+	/**
+	 * @param in
+	 *            content to upload
+	 * @param out
+	 *            stream to write the content to, possibly encrypting into the
+	 *            stream of the session
+	 * @param session
+	 *            upload session receiving the data written to out
+	 */
+	public UploadPump(InputStream in, OutputStream out, UploadSession session) {
+		this.in = in;
+		this.out = out;
+		this.session = session;
+	}
+
+	public UploadSession getSession() {
+		return session;
+	}
+
+	public void start(Callback<EncFSFileInfo, IOException> callback) {
+		this.callback = callback;
+		next();
+	}
+
+	/**
+	 * Continues a failed upload, see {@link UploadSession#resume()}.
+	 * 
+	 * @param callback
+	 */
+	public void resume(Callback<EncFSFileInfo, IOException> callback) {
+		this.callback = callback;
+		session.resume();
+		next();
+	}
+
+	/**
+	 * Gives up the upload and closes the content stream, see
+	 * {@link UploadSession#abort()}.
+	 */
+	public void abort() {
+		session.abort();
+		try {
+			in.close();
+		} catch (IOException e) {
+			// nothing left to clean up
+		}
+	}
+
+	private void next() {
+		if (drained) {
+			session.whenCommitted(callback);
+			return;
+		}
+
+		session.whenWritable(new Callback<Void, IOException>() {
+			@Override
+			public void onFailure(IOException reason) {
+				callback.onFailure(reason);
+			}
+
+			@Override
+			public void onSuccess(Void result) {
+				try {
+					int read = in.read(piece);
+					if (read == -1) {
+						drained = true;
+						in.close();
+						out.close();
+					} else {
+						out.write(piece, 0, read);
+					}
+				} catch (IOException e) {
+					// the content cannot be read again, so there is nothing to resume
+					abort();
+					callback.onFailure(e);
+					return;
+				}
+				next();
+			}
+		});
+	}
+}
@@ -0,0 +1,73 @@
+/*
+  	Copyright (C) 2013 Marco Schulte
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.voot.encfsanywhere.fs.shared.io;
+
+import java.io.IOException;
+
+import com.google.gwt.core.client.Callback;
+
+import de.voot.encfsgwt.shared.mrpdaemon.EncFSFileInfo;
+
+/**
+ * An upload started by opening an output stream on a provider. Data written
+ * to the stream is sent in chunks while the writer continues, so writers
+ * should wait for {@link #whenWritable(Callback)} before handing over more
+ * data to keep the number of buffered chunks bounded.
+ */
+public interface UploadSession {
+
+	public String getPath();
+
+	/**
+	 * Calls back as soon as the number of chunks waiting to be uploaded is
+	 * below the in-flight window. Fails if the upload fails, it can then be
+	 * continued with {@link #resume()}.
+	 * 
+	 * @param callback
+	 */
+	public void whenWritable(Callback<Void, IOException> callback);
+
+	/**
+	 * Calls back once the stream has been closed and the upload has been
+	 * committed.
+	 * 
+	 * @param callback
+	 */
+	public void whenCommitted(Callback<EncFSFileInfo, IOException> callback);
+
+	public boolean isFailed();
+
+	/**
+	 * Returns <code>true</code> once the upload has been aborted. An aborted
+	 * upload cannot be resumed.
+	 * 
+	 * @return
+	 */
+	public boolean isAborted();
+
+	/**
+	 * Continues a failed upload from the last acknowledged chunk. Chunks not
+	 * acknowledged yet are still buffered, so nothing has to be written again.
+	 */
+	public void resume();
+
+	/**
+	 * Drops all buffered data. The partially uploaded data expires on the
+	 * backend.
+	 */
+	public void abort();
+}
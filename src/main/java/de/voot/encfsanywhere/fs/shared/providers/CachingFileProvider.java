@@ -0,0 +1,317 @@
+/*
+  	Copyright (C) 2013 Marco Schulte
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.voot.encfsanywhere.fs.shared.providers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import com.google.gwt.core.client.Callback;
+
+import de.voot.encfsanywhere.fs.shared.cache.CacheStatistics;
+import de.voot.encfsanywhere.fs.shared.cache.ContentStore;
+import de.voot.encfsanywhere.fs.shared.io.BytesInputStream;
+import de.voot.encfsanywhere.fs.shared.io.UploadSession;
+import de.voot.encfsgwt.shared.jre.InputStream;
+import de.voot.encfsgwt.shared.jre.OutputStream;
+import de.voot.encfsgwt.shared.mrpdaemon.EncFSFileInfo;
+
+/**
+ * Caches file contents (ciphertext, when used below the encfs layer) of
+ * another provider in a memory tier and an optional second, usually
+ * disk-backed, tier. Every open checks the current revision of the file, so
+ * unchanged files are served locally and changed ones are downloaded again.
+ * 
+ * Stores may be shared by several instances, e.g. one per account on a
+ * server. Entries are keyed by the namespace of the instance, so equal paths
+ * and revisions of different accounts never meet.
+ * 
+ * Which revision is cached for a path is only known for revisions stored
+ * since this instance was created. Outdated revisions a persistent store
+ * still holds from an earlier run are never served, as the key contains the
+ * revision, but they take up budget until they are evicted.
+ */
+public class CachingFileProvider implements FileProvider {
+
+	private static final Logger LOG = Logger.getLogger("de.voot.encfsanywhere.fs.shared.providers.CachingFileProvider");
+
+	private final String namespace;
+	private final FileProvider provider;
+	private final ContentStore memory;
+	private final ContentStore disk;
+	// key of the cached revision of each path, kept in memory only: after a
+	// restart, revisions left in a persistent store by the previous run are
+	// not replaced when a path changes, they only leave by eviction
+	private final Map<String, String> cachedKeys = new HashMap<String, String>();
+
+	private long memoryHits = 0;
+	private long diskHits = 0;
+	private long misses = 0;
+	private long bytesSaved = 0;
+
+	/**
+	 * @param namespace
+	 *            identifies the account (or mount) whose files are cached,
+	 *            must be unique among the instances sharing a store
+	 * @param provider
+	 * @param memory
+	 *            hot tier
+	 * @param disk
+	 *            second tier, may be <code>null</code>
+	 */
+	public CachingFileProvider(String namespace, FileProvider provider, ContentStore memory, ContentStore disk) {
+		if (namespace == null) {
+			throw new IllegalArgumentException("Namespace required");
+		}
+		this.namespace = namespace;
+		this.provider = provider;
+		this.memory = memory;
+		this.disk = disk;
+	}
+
+	public synchronized CacheStatistics getStatistics() {
+		return new CacheStatistics(memoryHits, diskHits, misses, bytesSaved, memory.getEvictionCount(), disk != null ? disk.getEvictionCount() : 0);
+	}
+
+	@Override
+	public void openInputStream(final String srcFilePath, final Callback<InputStream, IOException> callback) {
+		provider.getRevision(srcFilePath, new Callback<String, IOException>() {
+			@Override
+			public void onFailure(IOException reason) {
+				callback.onFailure(reason);
+			}
+
+			@Override
+			public void onSuccess(String result) {
+				String key = keyFor(srcFilePath, result);
+				byte[] content = lookup(srcFilePath, key);
+				if (content != null) {
+					callback.onSuccess(new BytesInputStream(content));
+				} else {
+					download(srcFilePath, key, callback);
+				}
+			}
+		});
+	}
+
+	/**
+	 * The length prefix keeps namespaces containing path characters apart.
+	 * 
+	 * @param path
+	 * @param revision
+	 * @return
+	 */
+	private String keyFor(String path, String revision) {
+		return namespace.length() + ":" + namespace + path + "@" + revision;
+	}
+
+	private byte[] lookup(String path, String key) {
+		byte[] content = memory.get(key);
+		if (content != null) {
+			synchronized (this) {
+				memoryHits++;
+				bytesSaved += content.length;
+			}
+			return content;
+		}
+
+		if (disk != null) {
+			content = disk.get(key);
+			if (content != null) {
+				LOG.info("Serving <" + path + "> from disk tier");
+				memory.put(key, content);
+				synchronized (this) {
+					diskHits++;
+					bytesSaved += content.length;
+				}
+				return content;
+			}
+		}
+		return null;
+	}
+
+	private void download(final String path, final String key, final Callback<InputStream, IOException> callback) {
+		synchronized (this) {
+			misses++;
+		}
+		provider.openInputStream(path, new Callback<InputStream, IOException>() {
+			@Override
+			public void onFailure(IOException reason) {
+				callback.onFailure(reason);
+			}
+
+			@Override
+			public void onSuccess(InputStream result) {
+				byte[] content;
+				try {
+					content = BytesInputStream.readFully(result);
+				} catch (IOException e) {
+					callback.onFailure(e);
+					return;
+				}
+				store(path, key, content);
+				callback.onSuccess(new BytesInputStream(content));
+			}
+		});
+	}
+
+	private void store(String path, String key, byte[] content) {
+		String previous;
+		synchronized (cachedKeys) {
+			previous = cachedKeys.put(path, key);
+		}
+		if (previous != null && !previous.equals(key)) {
+			removeFromTiers(previous);
+		}
+		memory.put(key, content);
+		if (disk != null) {
+			disk.put(key, content);
+		}
+	}
+
+	/**
+	 * Drops the cached content of the path and everything below it.
+	 * 
+	 * @param path
+	 */
+	public void invalidate(String path) {
+		List<String> keys = new ArrayList<String>();
+		synchronized (cachedKeys) {
+			List<String> paths = new ArrayList<String>();
+			for (String p : cachedKeys.keySet()) {
+				if (p.equals(path) || p.startsWith(path.concat("/"))) {
+					paths.add(p);
+				}
+			}
+			for (String p : paths) {
+				keys.add(cachedKeys.remove(p));
+			}
+		}
+		for (String key : keys) {
+			removeFromTiers(key);
+		}
+	}
+
+	private void removeFromTiers(String key) {
+		memory.remove(key);
+		if (disk != null) {
+			disk.remove(key);
+		}
+	}
+
+	@Override
+	public void isDirectory(String srcPath, Callback<Boolean, IOException> callback) {
+		provider.isDirectory(srcPath, callback);
+	}
+
+	@Override
+	public void exists(String srcPath, Callback<Boolean, IOException> callback) {
+		provider.exists(srcPath, callback);
+	}
+
+	@Override
+	public String getFilesystemRootPath() {
+		return provider.getFilesystemRootPath();
+	}
+
+	@Override
+	public void getFileInfo(String srcPath, Callback<EncFSFileInfo, IOException> callback) {
+		provider.getFileInfo(srcPath, callback);
+	}
+
+	@Override
+	public void listFiles(String dirPath, Callback<List<EncFSFileInfo>, IOException> callback) {
+		provider.listFiles(dirPath, callback);
+	}
+
+	@Override
+	public void getRevision(String srcFilePath, Callback<String, IOException> callback) {
+		provider.getRevision(srcFilePath, callback);
+	}
+
+	@Override
+	public boolean move(String srcPath, String dstPath) throws IOException {
+		invalidate(srcPath);
+		invalidate(dstPath);
+		return provider.move(srcPath, dstPath);
+	}
+
+	@Override
+	public void move(String srcPath, String dstPath, Callback<EncFSFileInfo, IOException> callback) {
+		invalidate(srcPath);
+		invalidate(dstPath);
+		provider.move(srcPath, dstPath, callback);
+	}
+
+	@Override
+	public boolean copy(String srcFilePath, String dstFilePath) throws IOException {
+		invalidate(dstFilePath);
+		return provider.copy(srcFilePath, dstFilePath);
+	}
+
+	@Override
+	public void copy(String srcPath, String dstPath, Callback<EncFSFileInfo, IOException> callback) {
+		invalidate(dstPath);
+		provider.copy(srcPath, dstPath, callback);
+	}
+
+	@Override
+	public boolean delete(String srcPath) throws IOException {
+		invalidate(srcPath);
+		return provider.delete(srcPath);
+	}
+
+	@Override
+	public boolean mkdir(String dirPath) throws IOException {
+		return provider.mkdir(dirPath);
+	}
+
+	@Override
+	public boolean mkdirs(String dirPath) throws IOException {
+		return provider.mkdirs(dirPath);
+	}
+
+	@Override
+	public EncFSFileInfo createFile(String dstFilePath) throws IOException {
+		invalidate(dstFilePath);
+		return provider.createFile(dstFilePath);
+	}
+
+	@Override
+	public OutputStream openOutputStream(String dstFilePath, long outputLength) throws IOException {
+		invalidate(dstFilePath);
+		return provider.openOutputStream(dstFilePath, outputLength);
+	}
+
+	@Override
+	public UploadSession getUploadSession(String dstFilePath) {
+		return provider.getUploadSession(dstFilePath);
+	}
+
+	@Override
+	public void flush(Callback<Void, IOException> callback) {
+		provider.flush(callback);
+	}
+
+	@Override
+	public void disconnect() {
+		provider.disconnect();
+	}
+}
@@ -18,17 +18,22 @@ package de.voot.encfsanywhere.fs.shared.providers;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import com.google.gwt.core.client.Callback;
 import com.google.gwt.core.client.JsArray;
+import com.google.gwt.core.client.JsDate;
 
 import de.voot.dropboxgwt.client.DropboxWrapper;
 import de.voot.dropboxgwt.client.overlay.ApiError;
 import de.voot.dropboxgwt.client.overlay.ArrayBuffer;
 import de.voot.dropboxgwt.client.overlay.Stat;
 import de.voot.encfsanywhere.fs.shared.io.DropboxInputStream;
+import de.voot.encfsanywhere.fs.shared.io.DropboxOutputStream;
+import de.voot.encfsanywhere.fs.shared.io.UploadSession;
 import de.voot.encfsgwt.shared.jre.InputStream;
 import de.voot.encfsgwt.shared.jre.OutputStream;
 import de.voot.encfsgwt.shared.mrpdaemon.EncFSFileInfo;
@@ -37,7 +42,12 @@ public class DropboxFileProvider implements FileProvider {
 
 	private static final Logger LOG = Logger.getLogger("de.voot.encfsanywhere.fs.shared.providers.DropboxFileProvider");
 
+	private static final int UPLOAD_CHUNK_SIZE = 4 * 1024 * 1024;
+	private static final int UPLOAD_WINDOW = 2;
+
 	private DropboxWrapper dropboxWrapper;
+	private Map<String, DropboxOutputStream> uploads = new HashMap<String, DropboxOutputStream>();
+	private OperationQueue operations = new OperationQueue();
 
 	public DropboxFileProvider(DropboxWrapper dropboxWrapper) {
 		this.dropboxWrapper = dropboxWrapper;
@@ -59,20 +69,25 @@ public class DropboxFileProvider implements FileProvider {
 	}
 
 	@Override
-	public void exists(String srcPath, final Callback<Boolean, IOException> callback) {
-		dropboxWrapper.metadata(srcPath, new Callback<Stat, ApiError>() {
+	public void exists(final String srcPath, final Callback<Boolean, IOException> callback) {
+		afterIssued(new Runnable() {
 			@Override
-			public void onFailure(ApiError reason) {
-				if (reason.getStatus() == 404) {
-					callback.onSuccess(Boolean.FALSE);
-				} else {
-					callback.onFailure(new IOException(reason.getResponseText()));
-				}
-			}
+			public void run() {
+				dropboxWrapper.metadata(srcPath, new Callback<Stat, ApiError>() {
+					@Override
+					public void onFailure(ApiError reason) {
+						if (reason.getStatus() == 404) {
+							callback.onSuccess(Boolean.FALSE);
+						} else {
+							callback.onFailure(new IOException(reason.getResponseText()));
+						}
+					}
 
-			@Override
-			public void onSuccess(Stat result) {
-				callback.onSuccess(Boolean.TRUE);
+					@Override
+					public void onSuccess(Stat result) {
+						callback.onSuccess(Boolean.TRUE);
+					}
+				});
 			}
 		});
 	}
@@ -83,98 +98,260 @@ public class DropboxFileProvider implements FileProvider {
 	}
 
 	@Override
-	public void getFileInfo(String srcPath, final Callback<EncFSFileInfo, IOException> callback) {
-		dropboxWrapper.metadata(srcPath, new Callback<Stat, ApiError>() {
+	public void getFileInfo(final String srcPath, final Callback<EncFSFileInfo, IOException> callback) {
+		afterIssued(new Runnable() {
 			@Override
-			public void onFailure(ApiError reason) {
-				callback.onFailure(new IOException(reason.getResponseText()));
+			public void run() {
+				dropboxWrapper.metadata(srcPath, statCallback(callback));
 			}
+		});
+	}
 
+	@Override
+	public void listFiles(final String dirPath, final Callback<List<EncFSFileInfo>, IOException> callback) {
+		afterIssued(new Runnable() {
 			@Override
-			public void onSuccess(Stat result) {
-				EncFSFileInfo info = statToFileInfo(result);
-				callback.onSuccess(info);
+			public void run() {
+				dropboxWrapper.readdir(dirPath, new Callback<JsArray<Stat>, ApiError>() {
+					@Override
+					public void onFailure(ApiError reason) {
+						callback.onFailure(new IOException(reason.getResponseText()));
+					}
+
+					@Override
+					public void onSuccess(JsArray<Stat> result) {
+						List<EncFSFileInfo> list = new ArrayList<EncFSFileInfo>();
+						for (int i = 0; i < result.length(); i++) {
+							Stat stat = result.get(i);
+							list.add(statToFileInfo(stat));
+						}
+						callback.onSuccess(list);
+					}
+				});
 			}
 		});
 	}
 
 	@Override
-	public void listFiles(String dirPath, final Callback<List<EncFSFileInfo>, IOException> callback) {
-		dropboxWrapper.readdir(dirPath, new Callback<JsArray<Stat>, ApiError>() {
+	public void getRevision(final String srcFilePath, final Callback<String, IOException> callback) {
+		afterIssued(new Runnable() {
 			@Override
-			public void onFailure(ApiError reason) {
-				callback.onFailure(new IOException(reason.getResponseText()));
+			public void run() {
+				dropboxWrapper.metadata(srcFilePath, new Callback<Stat, ApiError>() {
+					@Override
+					public void onFailure(ApiError reason) {
+						callback.onFailure(new IOException(reason.getResponseText()));
+					}
+
+					@Override
+					public void onSuccess(Stat result) {
+						callback.onSuccess(result.getVersionTag() + ":" + result.getSize());
+					}
+				});
 			}
+		});
+	}
 
+	@Override
+	public void openInputStream(final String srcFilePath, final Callback<InputStream, IOException> callback) {
+		afterIssued(new Runnable() {
 			@Override
-			public void onSuccess(JsArray<Stat> result) {
-				List<EncFSFileInfo> list = new ArrayList<EncFSFileInfo>();
-				for (int i = 0; i < result.length(); i++) {
-					Stat stat = result.get(i);
-					list.add(statToFileInfo(stat));
-				}
-				callback.onSuccess(list);
+			public void run() {
+				dropboxWrapper.readFile(srcFilePath, new Callback<ArrayBuffer, ApiError>() {
+					@Override
+					public void onFailure(ApiError reason) {
+						callback.onFailure(new IOException(reason.getResponseText()));
+					}
+
+					@Override
+					public void onSuccess(ArrayBuffer result) {
+						InputStream in = new DropboxInputStream(result);
+						callback.onSuccess(in);
+					}
+				});
 			}
 		});
 	}
 
-	@Override
-	public void openInputStream(String srcFilePath, final Callback<InputStream, IOException> callback) {
-		dropboxWrapper.readFile(srcFilePath, new Callback<ArrayBuffer, ApiError>() {
+	/**
+	 * Runs a read once the modifying operations issued before it have been
+	 * carried out, so it sees their outcome.
+	 * 
+	 * @param read
+	 */
+	private void afterIssued(final Runnable read) {
+		operations.awaitIssued(new Callback<Void, IOException>() {
 			@Override
-			public void onFailure(ApiError reason) {
-				callback.onFailure(new IOException(reason.getResponseText()));
+			public void onFailure(IOException reason) {
+				// not reported to reads
 			}
 
 			@Override
-			public void onSuccess(ArrayBuffer result) {
-				InputStream in = new DropboxInputStream(result);
-				callback.onSuccess(in);
+			public void onSuccess(Void result) {
+				read.run();
 			}
 		});
 	}
 
+	/**
+	 * Queues a server-side move and returns immediately. The result only
+	 * means the move has been accepted: reads issued afterwards wait for it,
+	 * a failure is reported by {@link #flush(Callback)}.
+	 */
 	@Override
 	public boolean move(String srcPath, String dstPath) throws IOException {
-		throw new UnsupportedOperationException();
+		move(srcPath, dstPath, null);
+		return true;
 	}
 
 	@Override
-	public boolean delete(String srcPath) throws IOException {
-		throw new UnsupportedOperationException();
+	public void move(final String srcPath, final String dstPath, Callback<EncFSFileInfo, IOException> callback) {
+		operations.enqueue("move <" + srcPath + "> to <" + dstPath + ">", new OperationQueue.Operation() {
+			@Override
+			public void run(Callback<EncFSFileInfo, IOException> callback) {
+				dropboxWrapper.move(srcPath, dstPath, statCallback(callback));
+			}
+		}, callback);
 	}
 
+	/**
+	 * Queues the deletion and returns immediately, see
+	 * {@link #move(String, String)}.
+	 */
 	@Override
-	public boolean mkdir(String dirPath) throws IOException {
-		throw new UnsupportedOperationException();
+	public boolean delete(final String srcPath) throws IOException {
+		operations.enqueue("delete <" + srcPath + ">", new OperationQueue.Operation() {
+			@Override
+			public void run(Callback<EncFSFileInfo, IOException> callback) {
+				dropboxWrapper.remove(srcPath, statCallback(callback));
+			}
+		}, null);
+		return true;
 	}
 
+	/**
+	 * Queues the creation of the directory and returns immediately, see
+	 * {@link #move(String, String)}.
+	 */
+	@Override
+	public boolean mkdir(final String dirPath) throws IOException {
+		operations.enqueue("mkdir <" + dirPath + ">", new OperationQueue.Operation() {
+			@Override
+			public void run(Callback<EncFSFileInfo, IOException> callback) {
+				dropboxWrapper.mkdir(dirPath, statCallback(callback));
+			}
+		}, null);
+		return true;
+	}
+
+	/**
+	 * Dropbox creates missing parent directories anyway.
+	 */
 	@Override
 	public boolean mkdirs(String dirPath) throws IOException {
-		throw new UnsupportedOperationException();
+		return mkdir(dirPath);
 	}
 
+	/**
+	 * Queues the upload of an empty file and returns the info it will have,
+	 * see {@link #move(String, String)}.
+	 */
 	@Override
-	public EncFSFileInfo createFile(String dstFilePath) throws IOException {
-		throw new UnsupportedOperationException();
+	public EncFSFileInfo createFile(final String dstFilePath) throws IOException {
+		operations.enqueue("create <" + dstFilePath + ">", new OperationQueue.Operation() {
+			@Override
+			public void run(Callback<EncFSFileInfo, IOException> callback) {
+				dropboxWrapper.writeFile(dstFilePath, ArrayBuffer.create(0), statCallback(callback));
+			}
+		}, null);
+		int offset = dstFilePath.lastIndexOf("/") + 1;
+		return new EncFSFileInfo(dstFilePath.substring(offset), dstFilePath.substring(0, offset), false, System.currentTimeMillis(), 0, true, false,
+				false);
 	}
 
+	/**
+	 * Queues a server-side copy and returns immediately, see
+	 * {@link #move(String, String)}.
+	 */
 	@Override
 	public boolean copy(String srcFilePath, String dstFilePath) throws IOException {
-		throw new UnsupportedOperationException();
+		copy(srcFilePath, dstFilePath, null);
+		return true;
+	}
+
+	@Override
+	public void copy(final String srcPath, final String dstPath, Callback<EncFSFileInfo, IOException> callback) {
+		operations.enqueue("copy <" + srcPath + "> to <" + dstPath + ">", new OperationQueue.Operation() {
+			@Override
+			public void run(Callback<EncFSFileInfo, IOException> callback) {
+				dropboxWrapper.copy(srcPath, dstPath, statCallback(callback));
+			}
+		}, callback);
+	}
+
+	@Override
+	public void flush(Callback<Void, IOException> callback) {
+		operations.flush(callback);
 	}
 
+	/**
+	 * Opens a stream uploading its content through a chunked upload. The
+	 * upload is committed when the stream is closed, after the modifying
+	 * operations issued before, see {@link #getUploadSession(String)}.
+	 */
 	@Override
-	public OutputStream openOutputStream(String dstFilePath, long outputLength) throws IOException {
-		throw new UnsupportedOperationException();
+	public OutputStream openOutputStream(final String dstFilePath, long outputLength) throws IOException {
+		LOG.info("Starting chunked upload of <" + dstFilePath + ">");
+		int chunkSize = UPLOAD_CHUNK_SIZE;
+		if (outputLength > 0 && outputLength < chunkSize) {
+			chunkSize = (int) outputLength;
+		}
+		DropboxOutputStream out = new DropboxOutputStream(dropboxWrapper, dstFilePath, chunkSize, UPLOAD_WINDOW) {
+			@Override
+			protected void beforeCommit(Callback<Void, IOException> callback) {
+				// e.g. the empty file created for it must not overwrite the content
+				operations.awaitIssued(callback);
+			}
+
+			@Override
+			protected void finished() {
+				// failed uploads stay registered for resuming until they are aborted
+				if (uploads.get(dstFilePath) == this) {
+					uploads.remove(dstFilePath);
+				}
+			}
+		};
+		uploads.put(dstFilePath, out);
+		return out;
+	}
+
+	@Override
+	public UploadSession getUploadSession(String dstFilePath) {
+		return uploads.get(dstFilePath);
+	}
+
+	private Callback<Stat, ApiError> statCallback(final Callback<EncFSFileInfo, IOException> callback) {
+		return new Callback<Stat, ApiError>() {
+			@Override
+			public void onFailure(ApiError reason) {
+				callback.onFailure(new IOException(reason.getResponseText()));
+			}
+
+			@Override
+			public void onSuccess(Stat result) {
+				callback.onSuccess(statToFileInfo(result));
+			}
+		};
 	}
 
-	private EncFSFileInfo statToFileInfo(Stat result) {
+	public static EncFSFileInfo statToFileInfo(Stat result) {
 		String path = result.getPath();
 		int offset = path.lastIndexOf("/") + 1;
 		String name = path.substring(offset);
 		String parentPath = path.substring(0, offset);
-		EncFSFileInfo info = new EncFSFileInfo(name, parentPath, result.isFolder(), 0, result.getSize(), true, false, false);
+		JsDate modifiedAt = result.getModifiedAt();
+		long lastModified = modifiedAt != null ? (long) modifiedAt.getTime() : 0;
+		EncFSFileInfo info = new EncFSFileInfo(name, parentPath, result.isFolder(), lastModified, result.getSize(), true, false, false);
 		return info;
 	}
 
@@ -16,8 +16,65 @@
  */
 package de.voot.encfsanywhere.fs.shared.providers;
 
+import java.io.IOException;
+
+import com.google.gwt.core.client.Callback;
+
+import de.voot.encfsanywhere.fs.shared.io.UploadSession;
+import de.voot.encfsgwt.shared.mrpdaemon.EncFSFileInfo;
 import de.voot.encfsgwt.shared.mrpdaemon.EncFSFileProvider;
 
 public interface FileProvider extends EncFSFileProvider {
 	public void disconnect();
+
+	/**
+	 * Returns the session of the upload started by
+	 * <code>openOutputStream</code> for the given path, or <code>null</code>
+	 * if there is no such upload or the provider writes synchronously.
+	 * 
+	 * @param dstFilePath
+	 * @return
+	 */
+	public UploadSession getUploadSession(String dstFilePath);
+
+	/**
+	 * Moves a file or directory on the server, without transferring its
+	 * content. Ordered with the synchronous modifying operations, see
+	 * {@link #flush(Callback)}.
+	 * 
+	 * @param srcPath
+	 * @param dstPath
+	 * @param callback
+	 */
+	public void move(String srcPath, String dstPath, Callback<EncFSFileInfo, IOException> callback);
+
+	/**
+	 * Copies a file or directory on the server, without transferring its
+	 * content.
+	 * 
+	 * @param srcPath
+	 * @param dstPath
+	 * @param callback
+	 */
+	public void copy(String srcPath, String dstPath, Callback<EncFSFileInfo, IOException> callback);
+
+	/**
+	 * The synchronous modifying operations of {@link EncFSFileProvider} may
+	 * return before the server has carried them out; reads issued after them
+	 * still see their outcome. Calls back once all operations issued so far
+	 * have completed, or with the first failure among them that has not been
+	 * reported yet.
+	 * 
+	 * @param callback
+	 */
+	public void flush(Callback<Void, IOException> callback);
+
+	/**
+	 * Returns an identifier of the current revision of a file. It changes
+	 * whenever the content of the file changes.
+	 * 
+	 * @param srcFilePath
+	 * @param callback
+	 */
+	public void getRevision(String srcFilePath, Callback<String, IOException> callback);
 }
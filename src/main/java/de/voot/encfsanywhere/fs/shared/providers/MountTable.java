@@ -0,0 +1,515 @@
+/*
+  	Copyright (C) 2013 Marco Schulte
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.voot.encfsanywhere.fs.shared.providers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import com.google.gwt.core.client.Callback;
+
+import de.voot.encfsanywhere.fs.shared.Partitioner;
+import de.voot.encfsanywhere.fs.shared.io.UploadSession;
+import de.voot.encfsgwt.shared.jre.InputStream;
+import de.voot.encfsgwt.shared.jre.OutputStream;
+import de.voot.encfsgwt.shared.mrpdaemon.EncFSFileInfo;
+
+/**
+ * Composes several providers into one namespace. Every path is routed to the
+ * provider mounted at its longest matching mount point. Directories leading
+ * to mount points are synthesized, so e.g. <code>/a</code> and
+ * <code>/b</code> can be mounted without a provider at <code>/</code>.
+ * 
+ * Each mount has its own request queue, so a slow backend only delays its
+ * own requests. Used as {@link Partitioner}, it keeps the metadata of each
+ * mount in a separate cache partition.
+ */
+public class MountTable implements FileProvider, Partitioner {
+
+	private static final Logger LOG = Logger.getLogger("de.voot.encfsanywhere.fs.shared.providers.MountTable");
+
+	private class Mount {
+		String mountPoint;
+		FileProvider provider;
+		RequestQueue queue;
+
+		String toProviderPath(String path) {
+			if ("/".equals(mountPoint)) {
+				return path;
+			}
+			String rest = path.substring(mountPoint.length());
+			return rest.isEmpty() ? "/" : rest;
+		}
+
+		EncFSFileInfo toMountedInfo(EncFSFileInfo info) {
+			String providerPath = info.getPath();
+			String path;
+			if ("/".equals(mountPoint)) {
+				path = providerPath;
+			} else if ("/".equals(providerPath) || providerPath.isEmpty()) {
+				path = mountPoint;
+			} else {
+				path = mountPoint + providerPath;
+			}
+			return fileInfo(path, info);
+		}
+	}
+
+	private interface AsyncCall<T> {
+		void call(Mount mount, String providerPath, Callback<T, IOException> callback);
+	}
+
+	// sorted by descending length of the mount point, so the first match is the longest
+	private volatile List<Mount> mounts = new ArrayList<Mount>();
+	private volatile List<Partitioner.Listener> listeners = new ArrayList<Partitioner.Listener>();
+
+	/**
+	 * @param mountPoint
+	 *            absolute path without trailing slash, or <code>/</code>
+	 * @param provider
+	 * @param maxRequestsInFlight
+	 *            requests sent to the provider concurrently, further requests
+	 *            wait
+	 */
+	public synchronized void mount(String mountPoint, FileProvider provider, int maxRequestsInFlight) {
+		LOG.info("Mounting provider at <" + mountPoint + ">");
+		Mount mount = new Mount();
+		mount.mountPoint = mountPoint;
+		mount.provider = provider;
+		mount.queue = new RequestQueue(maxRequestsInFlight);
+
+		List<Mount> newMounts = new ArrayList<Mount>();
+		boolean added = false;
+		for (Mount existing : mounts) {
+			if (existing.mountPoint.equals(mountPoint)) {
+				throw new IllegalArgumentException("Already mounted: " + mountPoint);
+			}
+			if (!added && existing.mountPoint.length() < mountPoint.length()) {
+				newMounts.add(mount);
+				added = true;
+			}
+			newMounts.add(existing);
+		}
+		if (!added) {
+			newMounts.add(mount);
+		}
+		mounts = newMounts;
+		fireRepartitioned(mountPoint);
+	}
+
+	/**
+	 * Removes the mount, without disconnecting its provider. Cached metadata
+	 * of the mount moves to the partition of the mount now responsible for
+	 * its paths.
+	 * 
+	 * @param mountPoint
+	 * @return the unmounted provider or <code>null</code>
+	 */
+	public synchronized FileProvider unmount(String mountPoint) {
+		List<Mount> newMounts = new ArrayList<Mount>(mounts);
+		for (Mount mount : newMounts) {
+			if (mount.mountPoint.equals(mountPoint)) {
+				LOG.info("Unmounting provider at <" + mountPoint + ">");
+				newMounts.remove(mount);
+				mounts = newMounts;
+				fireRepartitioned(mountPoint);
+				return mount.provider;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public String partitionFor(String path) {
+		Mount mount = mountFor(path);
+		return mount != null ? mount.mountPoint : "";
+	}
+
+	@Override
+	public synchronized void addListener(Partitioner.Listener listener) {
+		List<Partitioner.Listener> newListeners = new ArrayList<Partitioner.Listener>(listeners);
+		newListeners.add(listener);
+		listeners = newListeners;
+	}
+
+	@Override
+	public synchronized void removeListener(Partitioner.Listener listener) {
+		List<Partitioner.Listener> newListeners = new ArrayList<Partitioner.Listener>(listeners);
+		newListeners.remove(listener);
+		listeners = newListeners;
+	}
+
+	private void fireRepartitioned(String mountPoint) {
+		for (Partitioner.Listener listener : listeners) {
+			listener.onRepartitioned(mountPoint);
+		}
+	}
+
+	private Mount mountFor(String path) {
+		for (Mount mount : mounts) {
+			String mountPoint = mount.mountPoint;
+			if ("/".equals(mountPoint) || path.equals(mountPoint) || path.startsWith(mountPoint.concat("/"))) {
+				return mount;
+			}
+		}
+		return null;
+	}
+
+	private Mount requireMount(String path) throws IOException {
+		Mount mount = mountFor(path);
+		if (mount == null) {
+			throw new IOException("No provider mounted for path <" + path + ">");
+		}
+		return mount;
+	}
+
+	/**
+	 * Returns the names of the mount points (or of the synthesized
+	 * directories leading to them) directly within the given directory.
+	 * 
+	 * @param dirPath
+	 * @return
+	 */
+	private Set<String> mountedChildNames(String dirPath) {
+		String prefix = dirPath.endsWith("/") ? dirPath : dirPath + "/";
+		Set<String> names = new HashSet<String>();
+		for (Mount mount : mounts) {
+			String mountPoint = mount.mountPoint;
+			if (mountPoint.length() > prefix.length() && mountPoint.startsWith(prefix)) {
+				String rest = mountPoint.substring(prefix.length());
+				int slash = rest.indexOf('/');
+				names.add(slash == -1 ? rest : rest.substring(0, slash));
+			}
+		}
+		return names;
+	}
+
+	private <T> void submit(String path, final AsyncCall<T> call, final Callback<T, IOException> callback) {
+		final Mount mount;
+		try {
+			mount = requireMount(path);
+		} catch (IOException e) {
+			callback.onFailure(e);
+			return;
+		}
+		final String providerPath = mount.toProviderPath(path);
+		mount.queue.submit(new RequestQueue.Request() {
+			@Override
+			public void start() {
+				call.call(mount, providerPath, mount.queue.releasing(callback));
+			}
+		});
+	}
+
+	@Override
+	public void isDirectory(String srcPath, final Callback<Boolean, IOException> callback) {
+		getFileInfo(srcPath, new Callback<EncFSFileInfo, IOException>() {
+			@Override
+			public void onFailure(IOException reason) {
+				callback.onFailure(reason);
+			}
+
+			@Override
+			public void onSuccess(EncFSFileInfo result) {
+				callback.onSuccess(result.isDirectory());
+			}
+		});
+	}
+
+	@Override
+	public void exists(String srcPath, Callback<Boolean, IOException> callback) {
+		if (mountFor(srcPath) == null) {
+			callback.onSuccess(!mountedChildNames(srcPath).isEmpty());
+			return;
+		}
+		submit(srcPath, new AsyncCall<Boolean>() {
+			@Override
+			public void call(Mount mount, String providerPath, Callback<Boolean, IOException> callback) {
+				mount.provider.exists(providerPath, callback);
+			}
+		}, callback);
+	}
+
+	@Override
+	public String getFilesystemRootPath() {
+		return "/";
+	}
+
+	@Override
+	public void getFileInfo(String srcPath, final Callback<EncFSFileInfo, IOException> callback) {
+		if (mountFor(srcPath) == null && ("/".equals(srcPath) || !mountedChildNames(srcPath).isEmpty())) {
+			callback.onSuccess(directoryInfo(srcPath));
+			return;
+		}
+		submit(srcPath, new AsyncCall<EncFSFileInfo>() {
+			@Override
+			public void call(final Mount mount, String providerPath, final Callback<EncFSFileInfo, IOException> callback) {
+				mount.provider.getFileInfo(providerPath, new Callback<EncFSFileInfo, IOException>() {
+					@Override
+					public void onFailure(IOException reason) {
+						callback.onFailure(reason);
+					}
+
+					@Override
+					public void onSuccess(EncFSFileInfo result) {
+						callback.onSuccess(mount.toMountedInfo(result));
+					}
+				});
+			}
+		}, callback);
+	}
+
+	@Override
+	public void listFiles(final String dirPath, final Callback<List<EncFSFileInfo>, IOException> callback) {
+		final Set<String> mounted = mountedChildNames(dirPath);
+		if (mountFor(dirPath) == null) {
+			if (mounted.isEmpty() && !"/".equals(dirPath)) {
+				callback.onFailure(new IOException("No provider mounted for path <" + dirPath + ">"));
+				return;
+			}
+			callback.onSuccess(withMountedChildren(dirPath, new ArrayList<EncFSFileInfo>(), mounted));
+			return;
+		}
+
+		submit(dirPath, new AsyncCall<List<EncFSFileInfo>>() {
+			@Override
+			public void call(final Mount mount, String providerPath, final Callback<List<EncFSFileInfo>, IOException> callback) {
+				mount.provider.listFiles(providerPath, new Callback<List<EncFSFileInfo>, IOException>() {
+					@Override
+					public void onFailure(IOException reason) {
+						callback.onFailure(reason);
+					}
+
+					@Override
+					public void onSuccess(List<EncFSFileInfo> result) {
+						List<EncFSFileInfo> list = new ArrayList<EncFSFileInfo>(result.size());
+						for (EncFSFileInfo info : result) {
+							list.add(mount.toMountedInfo(info));
+						}
+						callback.onSuccess(withMountedChildren(dirPath, list, mounted));
+					}
+				});
+			}
+		}, callback);
+	}
+
+	private List<EncFSFileInfo> withMountedChildren(String dirPath, List<EncFSFileInfo> list, Set<String> mounted) {
+		Set<String> present = new HashSet<String>();
+		for (EncFSFileInfo info : list) {
+			present.add(info.getName());
+		}
+		String prefix = dirPath.endsWith("/") ? dirPath : dirPath + "/";
+		for (String name : mounted) {
+			if (!present.contains(name)) {
+				list.add(directoryInfo(prefix + name));
+			}
+		}
+		return list;
+	}
+
+	@Override
+	public void openInputStream(String srcFilePath, Callback<InputStream, IOException> callback) {
+		submit(srcFilePath, new AsyncCall<InputStream>() {
+			@Override
+			public void call(Mount mount, String providerPath, Callback<InputStream, IOException> callback) {
+				mount.provider.openInputStream(providerPath, callback);
+			}
+		}, callback);
+	}
+
+	@Override
+	public void getRevision(String srcFilePath, Callback<String, IOException> callback) {
+		submit(srcFilePath, new AsyncCall<String>() {
+			@Override
+			public void call(Mount mount, String providerPath, Callback<String, IOException> callback) {
+				mount.provider.getRevision(providerPath, callback);
+			}
+		}, callback);
+	}
+
+	@Override
+	public boolean move(String srcPath, String dstPath) throws IOException {
+		Mount mount = sameMount(srcPath, dstPath);
+		return mount.provider.move(mount.toProviderPath(srcPath), mount.toProviderPath(dstPath));
+	}
+
+	@Override
+	public void move(String srcPath, String dstPath, Callback<EncFSFileInfo, IOException> callback) {
+		transfer(srcPath, dstPath, false, callback);
+	}
+
+	@Override
+	public boolean copy(String srcFilePath, String dstFilePath) throws IOException {
+		Mount mount = sameMount(srcFilePath, dstFilePath);
+		return mount.provider.copy(mount.toProviderPath(srcFilePath), mount.toProviderPath(dstFilePath));
+	}
+
+	@Override
+	public void copy(String srcPath, String dstPath, Callback<EncFSFileInfo, IOException> callback) {
+		transfer(srcPath, dstPath, true, callback);
+	}
+
+	private void transfer(String srcPath, final String dstPath, final boolean copy, final Callback<EncFSFileInfo, IOException> callback) {
+		try {
+			sameMount(srcPath, dstPath);
+		} catch (IOException e) {
+			callback.onFailure(e);
+			return;
+		}
+		submit(srcPath, new AsyncCall<EncFSFileInfo>() {
+			@Override
+			public void call(final Mount mount, String providerPath, final Callback<EncFSFileInfo, IOException> callback) {
+				Callback<EncFSFileInfo, IOException> mapping = new Callback<EncFSFileInfo, IOException>() {
+					@Override
+					public void onFailure(IOException reason) {
+						callback.onFailure(reason);
+					}
+
+					@Override
+					public void onSuccess(EncFSFileInfo result) {
+						callback.onSuccess(mount.toMountedInfo(result));
+					}
+				};
+				if (copy) {
+					mount.provider.copy(providerPath, mount.toProviderPath(dstPath), mapping);
+				} else {
+					mount.provider.move(providerPath, mount.toProviderPath(dstPath), mapping);
+				}
+			}
+		}, callback);
+	}
+
+	private Mount sameMount(String srcPath, String dstPath) throws IOException {
+		Mount mount = requireMount(srcPath);
+		if (mount != requireMount(dstPath)) {
+			throw new IOException("Cannot move or copy between different mounts");
+		}
+		return mount;
+	}
+
+	@Override
+	public boolean delete(String srcPath) throws IOException {
+		Mount mount = requireMount(srcPath);
+		return mount.provider.delete(mount.toProviderPath(srcPath));
+	}
+
+	@Override
+	public boolean mkdir(String dirPath) throws IOException {
+		Mount mount = requireMount(dirPath);
+		return mount.provider.mkdir(mount.toProviderPath(dirPath));
+	}
+
+	@Override
+	public boolean mkdirs(String dirPath) throws IOException {
+		Mount mount = requireMount(dirPath);
+		return mount.provider.mkdirs(mount.toProviderPath(dirPath));
+	}
+
+	@Override
+	public EncFSFileInfo createFile(String dstFilePath) throws IOException {
+		Mount mount = requireMount(dstFilePath);
+		return mount.toMountedInfo(mount.provider.createFile(mount.toProviderPath(dstFilePath)));
+	}
+
+	@Override
+	public OutputStream openOutputStream(String dstFilePath, long outputLength) throws IOException {
+		Mount mount = requireMount(dstFilePath);
+		return mount.provider.openOutputStream(mount.toProviderPath(dstFilePath), outputLength);
+	}
+
+	@Override
+	public UploadSession getUploadSession(String dstFilePath) {
+		Mount mount = mountFor(dstFilePath);
+		return mount != null ? mount.provider.getUploadSession(mount.toProviderPath(dstFilePath)) : null;
+	}
+
+	/**
+	 * Flushes all mounts, failing with the first failure reported.
+	 */
+	@Override
+	public void flush(final Callback<Void, IOException> callback) {
+		final List<Mount> toFlush = mounts;
+		if (toFlush.isEmpty()) {
+			callback.onSuccess(null);
+			return;
+		}
+		final int[] remaining = new int[] { toFlush.size() };
+		final IOException[] failure = new IOException[1];
+		for (Mount mount : toFlush) {
+			mount.provider.flush(new Callback<Void, IOException>() {
+				@Override
+				public void onFailure(IOException reason) {
+					synchronized (remaining) {
+						if (failure[0] == null) {
+							failure[0] = reason;
+						}
+					}
+					done();
+				}
+
+				@Override
+				public void onSuccess(Void result) {
+					done();
+				}
+
+				private void done() {
+					synchronized (remaining) {
+						if (--remaining[0] > 0) {
+							return;
+						}
+					}
+					if (failure[0] != null) {
+						callback.onFailure(failure[0]);
+					} else {
+						callback.onSuccess(null);
+					}
+				}
+			});
+		}
+	}
+
+	@Override
+	public void disconnect() {
+		for (Mount mount : mounts) {
+			mount.provider.disconnect();
+		}
+	}
+
+	private static EncFSFileInfo directoryInfo(String path) {
+		return fileInfo(path, null);
+	}
+
+	private static EncFSFileInfo fileInfo(String path, EncFSFileInfo info) {
+		String name;
+		String parentPath;
+		if ("/".equals(path)) {
+			name = "/";
+			parentPath = "";
+		} else {
+			name = path.substring(path.lastIndexOf("/") + 1);
+			parentPath = path.substring(0, path.lastIndexOf("/") + 1);
+		}
+		if (info == null) {
+			return new EncFSFileInfo(name, parentPath, true, 0, 0, true, false, false);
+		}
+		return new EncFSFileInfo(name, parentPath, info.isDirectory(), info.getLastModified(), info.getSize(), info.isReadable(), info.isWritable(),
+				info.isExecutable());
+	}
+}
@@ -0,0 +1,251 @@
+/*
+  	Copyright (C) 2013 Marco Schulte
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.voot.encfsanywhere.fs.shared.providers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import com.google.gwt.core.client.Callback;
+
+import de.voot.encfsgwt.shared.mrpdaemon.EncFSFileInfo;
+
+/**
+ * Runs modifying server-side operations one after another, in the order they
+ * were issued. Lets a provider accept the synchronous modifying calls of
+ * {@link de.voot.encfsgwt.shared.mrpdaemon.EncFSFileProvider} and report
+ * their outcome later through {@link #flush(Callback)}. Reads wait for the
+ * operations issued before them with {@link #awaitIssued(Callback)}, so they
+ * see the tree as the caller expects it.
+ * 
+ * Callers of the synchronous calls cannot react to a failure, so once an
+ * operation without a callback of its own fails, the operations queued behind
+ * it fail as well instead of running, up to the next flush. A directory move
+ * of the encfs layer therefore never deletes its source after one of its
+ * child moves failed.
+ */
+class OperationQueue {
+
+	private static final Logger LOG = Logger.getLogger("de.voot.encfsanywhere.fs.shared.providers.OperationQueue");
+
+	interface Operation {
+		void run(Callback<EncFSFileInfo, IOException> callback);
+	}
+
+	private class QueuedOperation {
+		long sequence;
+		String description;
+		Operation operation;
+		Callback<EncFSFileInfo, IOException> callback;
+	}
+
+	private class Waiter {
+		// waits for all operations below this sequence number
+		long sequence;
+		boolean flush;
+		Callback<Void, IOException> callback;
+	}
+
+	private class Failure {
+		long sequence;
+		String description;
+		IOException reason;
+	}
+
+	private final LinkedList<QueuedOperation> queue = new LinkedList<QueuedOperation>();
+	private final LinkedList<Waiter> waiters = new LinkedList<Waiter>();
+	// failures of operations nobody passed a callback for
+	private final LinkedList<Failure> failures = new LinkedList<Failure>();
+	private long issued = 0;
+	private long completed = 0;
+	private boolean running = false;
+	// operations below poisonedBefore fail because of this failure
+	private Failure poison;
+	private long poisonedBefore;
+
+	/**
+	 * @param description
+	 *            used for logging
+	 * @param operation
+	 * @param callback
+	 *            called with the result of this operation, may be
+	 *            <code>null</code>. A failure is then reported by the next
+	 *            flush and fails the operations queued up to it.
+	 */
+	void enqueue(String description, Operation operation, Callback<EncFSFileInfo, IOException> callback) {
+		QueuedOperation queued = new QueuedOperation();
+		queued.description = description;
+		queued.operation = operation;
+		queued.callback = callback;
+		synchronized (this) {
+			queued.sequence = issued++;
+			queue.add(queued);
+		}
+		runNext();
+	}
+
+	/**
+	 * Calls back once all operations issued so far have completed. Fails with
+	 * the first failure among them that had no callback of its own and has not
+	 * been reported by an earlier flush.
+	 * 
+	 * @param callback
+	 */
+	void flush(Callback<Void, IOException> callback) {
+		await(callback, true);
+	}
+
+	/**
+	 * Calls back once all operations issued so far have completed, whatever
+	 * their outcome. Immediately if there are none.
+	 * 
+	 * @param callback
+	 */
+	void awaitIssued(Callback<Void, IOException> callback) {
+		await(callback, false);
+	}
+
+	private void await(Callback<Void, IOException> callback, boolean flush) {
+		Waiter waiter = new Waiter();
+		waiter.flush = flush;
+		waiter.callback = callback;
+		synchronized (this) {
+			waiter.sequence = issued;
+			waiters.add(waiter);
+			if (flush && poison != null && poisonedBefore == Long.MAX_VALUE) {
+				poisonedBefore = waiter.sequence;
+			}
+		}
+		notifyWaiters();
+	}
+
+	private void runNext() {
+		while (true) {
+			QueuedOperation next;
+			IOException skipped = null;
+			synchronized (this) {
+				if (running || queue.isEmpty()) {
+					return;
+				}
+				next = queue.poll();
+				running = true;
+				if (poison != null) {
+					if (next.sequence < poisonedBefore) {
+						skipped = new IOException("Skipped after failure of " + poison.description);
+					} else {
+						poison = null;
+					}
+				}
+			}
+
+			if (skipped == null) {
+				run(next);
+				return;
+			}
+			LOG.warning("Skipping " + next.description);
+			completed(next);
+			if (next.callback != null) {
+				next.callback.onFailure(skipped);
+			}
+			notifyWaiters();
+		}
+	}
+
+	private void run(final QueuedOperation next) {
+		LOG.info("Running " + next.description);
+		next.operation.run(new Callback<EncFSFileInfo, IOException>() {
+			@Override
+			public void onFailure(IOException reason) {
+				LOG.warning(next.description + " failed: " + reason.getMessage());
+				if (next.callback == null) {
+					failed(next, reason);
+				}
+				completed(next);
+				if (next.callback != null) {
+					next.callback.onFailure(reason);
+				}
+				notifyWaiters();
+				runNext();
+			}
+
+			@Override
+			public void onSuccess(EncFSFileInfo result) {
+				completed(next);
+				if (next.callback != null) {
+					next.callback.onSuccess(result);
+				}
+				notifyWaiters();
+				runNext();
+			}
+		});
+	}
+
+	private synchronized void failed(QueuedOperation operation, IOException reason) {
+		Failure failure = new Failure();
+		failure.sequence = operation.sequence;
+		failure.description = operation.description;
+		failure.reason = reason;
+		failures.add(failure);
+		if (poison != null) {
+			return;
+		}
+		poison = failure;
+		poisonedBefore = Long.MAX_VALUE;
+		for (Waiter waiter : waiters) {
+			if (waiter.flush && waiter.sequence > failure.sequence) {
+				poisonedBefore = waiter.sequence;
+				break;
+			}
+		}
+	}
+
+	private synchronized void completed(QueuedOperation operation) {
+		completed = operation.sequence + 1;
+		running = false;
+	}
+
+	private void notifyWaiters() {
+		List<Waiter> ready = new ArrayList<Waiter>();
+		List<IOException> reasons = new ArrayList<IOException>();
+		synchronized (this) {
+			// waiters are added in sequence order
+			while (!waiters.isEmpty() && waiters.peek().sequence <= completed) {
+				Waiter waiter = waiters.poll();
+				IOException reason = null;
+				if (waiter.flush) {
+					while (!failures.isEmpty() && failures.peek().sequence < waiter.sequence) {
+						Failure failure = failures.poll();
+						if (reason == null) {
+							reason = failure.reason;
+						}
+					}
+				}
+				ready.add(waiter);
+				reasons.add(reason);
+			}
+		}
+		for (int i = 0; i < ready.size(); i++) {
+			if (reasons.get(i) != null) {
+				ready.get(i).callback.onFailure(reasons.get(i));
+			} else {
+				ready.get(i).callback.onSuccess(null);
+			}
+		}
+	}
+}
@@ -22,6 +22,7 @@ import java.util.List;
 
 import com.google.gwt.core.client.Callback;
 
+import de.voot.encfsanywhere.fs.shared.io.UploadSession;
 import de.voot.encfsgwt.shared.jre.InputStream;
 import de.voot.encfsgwt.shared.jre.OutputStream;
 import de.voot.encfsgwt.shared.mrpdaemon.EncFSFileInfo;
@@ -30,9 +31,9 @@ import de.voot.encfsgwt.shared.mrpdaemon.EncFSFileProvider;
 public class PathRewritingWrapper implements EncFSFileProvider {
 
 	private final String rootFolder;
-	private final EncFSFileProvider provider;
+	private final FileProvider provider;
 
-	public PathRewritingWrapper(String rootFolder, EncFSFileProvider provider) {
+	public PathRewritingWrapper(String rootFolder, FileProvider provider) {
 		this.rootFolder = rootFolder;
 		this.provider = provider;
 	}
@@ -127,7 +128,7 @@ public class PathRewritingWrapper implements EncFSFileProvider {
 
 	@Override
 	public EncFSFileInfo createFile(String dstFilePath) throws IOException {
-		return provider.createFile(rootFolder + dstFilePath);
+		return convertFileInfo(provider.createFile(rootFolder + dstFilePath));
 	}
 
 	@Override
@@ -145,4 +146,16 @@ public class PathRewritingWrapper implements EncFSFileProvider {
 		return provider.openOutputStream(rootFolder + dstFilePath, outputLength);
 	}
 
+	/**
+	 * Returns the session of the upload started for the given ciphertext
+	 * path, see {@link de.voot.encfsgwt.shared.mrpdaemon.EncFSFile#getEncryptedPath()}.
+	 * 
+	 * @param dstFilePath
+	 *            ciphertext path relative to the volume root
+	 * @return
+	 */
+	public UploadSession getUploadSession(String dstFilePath) {
+		return provider.getUploadSession(rootFolder + dstFilePath);
+	}
+
 }
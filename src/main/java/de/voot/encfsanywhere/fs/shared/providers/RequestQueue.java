@@ -0,0 +1,87 @@
+/*
+  	Copyright (C) 2013 Marco Schulte
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.voot.encfsanywhere.fs.shared.providers;
+
+import java.io.IOException;
+import java.util.LinkedList;
+
+import com.google.gwt.core.client.Callback;
+
+/**
+ * Limits the number of requests in flight against one backend. Requests
+ * beyond the limit wait in FIFO order.
+ */
+class RequestQueue {
+
+	interface Request {
+		void start();
+	}
+
+	private final int maxInFlight;
+	private final LinkedList<Request> waiting = new LinkedList<Request>();
+	private int inFlight = 0;
+
+	RequestQueue(int maxInFlight) {
+		this.maxInFlight = maxInFlight;
+	}
+
+	void submit(Request request) {
+		synchronized (this) {
+			if (inFlight >= maxInFlight) {
+				waiting.add(request);
+				return;
+			}
+			inFlight++;
+		}
+		request.start();
+	}
+
+	/**
+	 * Wraps the callback of a request, so that the next waiting request is
+	 * started once it completes.
+	 * 
+	 * @param callback
+	 * @return
+	 */
+	<T> Callback<T, IOException> releasing(final Callback<T, IOException> callback) {
+		return new Callback<T, IOException>() {
+			@Override
+			public void onFailure(IOException reason) {
+				release();
+				callback.onFailure(reason);
+			}
+
+			@Override
+			public void onSuccess(T result) {
+				release();
+				callback.onSuccess(result);
+			}
+		};
+	}
+
+	private void release() {
+		Request next;
+		synchronized (this) {
+			next = waiting.poll();
+			if (next == null) {
+				inFlight--;
+				return;
+			}
+		}
+		next.start();
+	}
+}
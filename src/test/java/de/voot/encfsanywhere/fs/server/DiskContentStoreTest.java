@@ -0,0 +1,130 @@
+/*
+  	Copyright (C) 2013 Marco Schulte
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.voot.encfsanywhere.fs.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DiskContentStoreTest {
+
+	private Path directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("content-store");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try (Stream<Path> walk = Files.walk(directory)) {
+			for (Path path : walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+				Files.delete(path);
+			}
+		}
+	}
+
+	private List<Path> storedFiles() throws IOException {
+		try (Stream<Path> listing = Files.list(directory)) {
+			return listing.collect(Collectors.toList());
+		}
+	}
+
+	@Test
+	public void returnsStoredContent() throws IOException {
+		DiskContentStore store = new DiskContentStore(directory, 10);
+		store.put("a", new byte[] { 1, 2 });
+		assertArrayEquals(new byte[] { 1, 2 }, store.get("a"));
+		assertNull(store.get("b"));
+		assertEquals(2, store.getSize());
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedOverBudget() throws IOException {
+		DiskContentStore store = new DiskContentStore(directory, 10);
+		store.put("a", new byte[4]);
+		store.put("b", new byte[4]);
+		store.get("a");
+		store.put("c", new byte[4]);
+
+		assertNotNull(store.get("a"));
+		assertNull(store.get("b"));
+		assertNotNull(store.get("c"));
+		assertEquals(8, store.getSize());
+		assertEquals(1, store.getEvictionCount());
+		assertEquals(2, storedFiles().size());
+	}
+
+	@Test
+	public void skipsContentLargerThanBudget() throws IOException {
+		DiskContentStore store = new DiskContentStore(directory, 10);
+		store.put("huge", new byte[11]);
+		assertNull(store.get("huge"));
+		assertEquals(0, storedFiles().size());
+	}
+
+	@Test
+	public void removeDeletesFile() throws IOException {
+		DiskContentStore store = new DiskContentStore(directory, 10);
+		store.put("a", new byte[4]);
+		store.put("a", new byte[6]);
+		assertEquals(6, store.getSize());
+
+		store.remove("a");
+		assertEquals(0, store.getSize());
+		assertEquals(0, storedFiles().size());
+	}
+
+	@Test
+	public void picksUpEntriesAfterRestart() throws IOException {
+		DiskContentStore store = new DiskContentStore(directory, 10);
+		store.put("a", new byte[] { 1, 2, 3 });
+		Files.write(directory.resolve("partial.tmp"), new byte[5]);
+
+		DiskContentStore restarted = new DiskContentStore(directory, 10);
+		assertArrayEquals(new byte[] { 1, 2, 3 }, restarted.get("a"));
+		assertEquals(3, restarted.getSize());
+		assertEquals(1, storedFiles().size());
+	}
+
+	@Test
+	public void evictsOldestEntriesWhenRestartedWithSmallerBudget() throws IOException {
+		DiskContentStore store = new DiskContentStore(directory, 10);
+		store.put("old", new byte[4]);
+		Files.setLastModifiedTime(storedFiles().get(0), FileTime.fromMillis(1000));
+		store.put("new", new byte[4]);
+
+		DiskContentStore restarted = new DiskContentStore(directory, 5);
+		assertNull(restarted.get("old"));
+		assertNotNull(restarted.get("new"));
+		assertEquals(1, restarted.getEvictionCount());
+	}
+}
@@ -0,0 +1,169 @@
+/*
+  	Copyright (C) 2013 Marco Schulte
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.voot.encfsanywhere.fs.shared;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gwt.core.client.Callback;
+
+import de.voot.encfsanywhere.fs.shared.providers.InMemoryFileProvider;
+
+public class FileIndexTest {
+
+	private static class Result<T> implements Callback<T, Exception> {
+		T value;
+		Exception failure;
+
+		@Override
+		public void onFailure(Exception reason) {
+			failure = reason;
+		}
+
+		@Override
+		public void onSuccess(T result) {
+			value = result;
+		}
+	}
+
+	private InMemoryFileProvider provider;
+	private Files files;
+	private Map<String, Integer> indexedListings;
+	private FileIndex index;
+
+	@Before
+	public void setUp() {
+		provider = new InMemoryFileProvider();
+		provider.addDirectory("/docs");
+		provider.addFile("/docs/Report.pdf", 100, 10);
+		provider.addFile("/docs/notes.txt", 5, 20);
+		provider.addDirectory("/docs/sub");
+		provider.addFile("/docs/sub/report-old.txt", 50, 30);
+		provider.addDirectory("/other");
+		provider.addFile("/other/report.txt", 1, 1);
+		files = new Files(provider);
+		indexedListings = new HashMap<String, Integer>();
+
+		Result<Path> root = new Result<Path>();
+		files.pathForName("/docs", root);
+		index = new FileIndex(files, root.value) {
+			@Override
+			public synchronized void onListed(Path dir, Path[] children) {
+				Integer count = indexedListings.get(dir.toString());
+				indexedListings.put(dir.toString(), count == null ? 1 : count + 1);
+				super.onListed(dir, children);
+			}
+		};
+	}
+
+	private int crawl() {
+		Result<Integer> crawled = new Result<Integer>();
+		index.crawl(2, crawled);
+		assertNotNull(crawled.value);
+		return crawled.value;
+	}
+
+	private List<String> search(SearchQuery query) {
+		List<String> paths = new ArrayList<String>();
+		for (Path path : index.search(query)) {
+			paths.add(path.toString());
+		}
+		return paths;
+	}
+
+	@Test
+	public void crawlIndexesTreeBelowRoot() {
+		assertEquals(4, crawl());
+		assertEquals(2, search(new SearchQuery("report")).size());
+	}
+
+	@Test
+	public void crawlIndexesEachListingOnce() {
+		crawl();
+		assertEquals(Integer.valueOf(1), indexedListings.get("/docs"));
+		assertEquals(Integer.valueOf(1), indexedListings.get("/docs/sub"));
+
+		// served from the cache now, so the crawl has to index them itself
+		crawl();
+		assertEquals(Integer.valueOf(2), indexedListings.get("/docs"));
+		assertEquals(Integer.valueOf(2), indexedListings.get("/docs/sub"));
+	}
+
+	@Test
+	public void crawlSkipsFailedSubdirectories() {
+		provider.addDirectory("/docs/broken");
+		provider.addFile("/docs/broken/report.txt", 1, 1);
+		provider.failListing("/docs/broken");
+
+		assertEquals(5, crawl());
+		assertEquals(2, search(new SearchQuery("report")).size());
+	}
+
+	@Test
+	public void crawlFailsIfRootCannotBeListed() {
+		provider.failListing("/docs");
+		Result<Integer> crawled = new Result<Integer>();
+		index.crawl(2, crawled);
+		assertNotNull(crawled.failure);
+	}
+
+	@Test
+	public void matchesPrefixesCaseInsensitive() {
+		crawl();
+		assertEquals(2, search(new SearchQuery("REP").prefixOnly()).size());
+		assertEquals(0, search(new SearchQuery("port").prefixOnly()).size());
+		assertEquals(2, search(new SearchQuery("port")).size());
+	}
+
+	@Test
+	public void filtersBySizeModificationAndType() {
+		crawl();
+		List<String> large = search(new SearchQuery("report").withMinSize(60));
+		assertEquals(1, large.size());
+		assertEquals("/docs/Report.pdf", large.get(0));
+
+		List<String> recent = search(new SearchQuery("report").modifiedAfter(15));
+		assertEquals(1, recent.size());
+		assertEquals("/docs/sub/report-old.txt", recent.get(0));
+
+		assertEquals(1, search(new SearchQuery("sub")).size());
+		assertEquals(0, search(new SearchQuery("sub").filesOnly()).size());
+	}
+
+	@Test
+	public void limitsResults() {
+		crawl();
+		assertEquals(1, search(new SearchQuery("t").withLimit(1)).size());
+	}
+
+	@Test
+	public void forgetsRemovedSubtrees() {
+		crawl();
+		index.onRemoved("/docs/sub");
+		assertEquals(2, index.size());
+		assertTrue(search(new SearchQuery("report-old")).isEmpty());
+	}
+}
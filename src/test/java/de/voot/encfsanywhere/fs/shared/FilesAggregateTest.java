@@ -0,0 +1,141 @@
+/*
+  	Copyright (C) 2013 Marco Schulte
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.voot.encfsanywhere.fs.shared;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gwt.core.client.Callback;
+
+import de.voot.encfsanywhere.fs.shared.providers.InMemoryFileProvider;
+
+public class FilesAggregateTest {
+
+	private static class Result<T> implements Callback<T, Exception> {
+		T value;
+
+		@Override
+		public void onFailure(Exception reason) {
+			throw new AssertionError(reason);
+		}
+
+		@Override
+		public void onSuccess(T result) {
+			value = result;
+		}
+	}
+
+	private MetadataCache cache;
+	private Files files;
+
+	@Before
+	public void setUp() {
+		InMemoryFileProvider provider = new InMemoryFileProvider();
+		provider.addDirectory("/a");
+		provider.addFile("/a/f1", 10, 5);
+		provider.addDirectory("/a/b");
+		provider.addFile("/a/b/f2", 20, 9);
+		provider.addFile("/c", 3, 1);
+		cache = new MetadataCache();
+		files = new Files(provider, cache, MapFactory.HASH_MAP);
+	}
+
+	private Path path(Files files, String name) {
+		Result<Path> result = new Result<Path>();
+		files.pathForName(name, result);
+		assertNotNull(result.value);
+		return result.value;
+	}
+
+	private void list(String name) {
+		Result<Path[]> result = new Result<Path[]>();
+		files.listFiles(path(files, name), result);
+		assertNotNull(result.value);
+	}
+
+	private FolderUsage usage(String name) {
+		return files.getFolderUsage(path(files, name));
+	}
+
+	@Test
+	public void countsListedFilesOnly() {
+		list("/");
+		FolderUsage root = usage("/");
+		assertEquals(3, root.getBytes());
+		assertEquals(1, root.getFileCount());
+		assertFalse(root.isComplete());
+	}
+
+	@Test
+	public void propagatesListingsToAncestors() {
+		list("/");
+		list("/a");
+		FolderUsage root = usage("/");
+		assertEquals(13, root.getBytes());
+		assertEquals(2, root.getFileCount());
+		assertEquals(5, root.getLastModified());
+		assertFalse(root.isComplete());
+
+		list("/a/b");
+		root = usage("/");
+		assertEquals(33, root.getBytes());
+		assertEquals(3, root.getFileCount());
+		assertEquals(9, root.getLastModified());
+		assertTrue(root.isComplete());
+
+		FolderUsage a = usage("/a");
+		assertEquals(30, a.getBytes());
+		assertTrue(a.isComplete());
+	}
+
+	@Test
+	public void listingsBelowUnlistedParentsArePickedUpLater() {
+		list("/");
+		list("/a/b");
+		assertEquals(3, usage("/").getBytes());
+
+		list("/a");
+		assertEquals(33, usage("/").getBytes());
+		assertTrue(usage("/").isComplete());
+	}
+
+	@Test
+	public void reportsFileSizeForFiles() {
+		list("/");
+		FolderUsage file = usage("/c");
+		assertEquals(3, file.getBytes());
+		assertEquals(1, file.getFileCount());
+		assertTrue(file.isComplete());
+	}
+
+	@Test
+	public void sharesTotalsThroughSharedCache() {
+		list("/");
+		list("/a");
+		list("/a/b");
+
+		Files other = new Files(new InMemoryFileProvider(), cache, MapFactory.HASH_MAP);
+		FolderUsage root = other.getFolderUsage(path(other, "/"));
+		assertEquals(33, root.getBytes());
+		assertTrue(root.isComplete());
+	}
+}
@@ -0,0 +1,128 @@
+/*
+  	Copyright (C) 2013 Marco Schulte
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.voot.encfsanywhere.fs.shared;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.voot.encfsanywhere.fs.shared.providers.InMemoryFileProvider;
+import de.voot.encfsanywhere.fs.shared.providers.MountTable;
+
+public class MetadataCacheTest {
+
+	private MountTable mounts;
+	private MetadataCache cache;
+
+	@Before
+	public void setUp() {
+		mounts = new MountTable();
+		mounts.mount("/", new InMemoryFileProvider(), 1);
+		cache = new MetadataCache(MapFactory.HASH_MAP, mounts);
+	}
+
+	private static PathInfo listedDirectory(String path) {
+		PathInfo info = new PathInfo();
+		info.path = new Path(path);
+		info.isDirectory = true;
+		info.children = new Path[0];
+		return info;
+	}
+
+	@Test
+	public void keepsEntriesInThePartitionOfTheirMount() {
+		mounts.mount("/a", new InMemoryFileProvider(), 1);
+		cache.put("/a/x", listedDirectory("/a/x"));
+		cache.put("/b", listedDirectory("/b"));
+
+		cache.clearPartition("/a");
+		assertNull(cache.get("/a/x"));
+		assertNotNull(cache.get("/b"));
+	}
+
+	@Test
+	public void movesEntriesIntoNewMount() {
+		PathInfo root = listedDirectory("/");
+		PathInfo mounted = listedDirectory("/a");
+		PathInfo below = listedDirectory("/a/x");
+		PathInfo beside = listedDirectory("/b");
+		cache.put("/", root);
+		cache.put("/a", mounted);
+		cache.put("/a/x", below);
+		cache.put("/b", beside);
+
+		mounts.mount("/a", new InMemoryFileProvider(), 1);
+		assertSame(mounted, cache.get("/a"));
+		assertSame(below, cache.get("/a/x"));
+		assertTrue(cache.pathsWithin("/a").contains("/a/x"));
+
+		// listed by the provider responsible before
+		assertNull(mounted.children);
+		assertNull(below.children);
+		assertNull(root.children);
+		assertNotNull(beside.children);
+
+		cache.clearPartition("/a");
+		assertNull(cache.get("/a/x"));
+		assertSame(beside, cache.get("/b"));
+	}
+
+	@Test
+	public void movesEntriesBackOnUnmount() {
+		mounts.mount("/a", new InMemoryFileProvider(), 1);
+		PathInfo below = listedDirectory("/a/x");
+		cache.put("/a/x", below);
+
+		mounts.unmount("/a");
+		assertSame(below, cache.get("/a/x"));
+		assertNull(below.children);
+
+		// the emptied partition of the mount may still be written to
+		cache.put("/a/y", listedDirectory("/a/y"));
+		assertNotNull(cache.get("/a/y"));
+	}
+
+	@Test
+	public void newerEntriesOfTargetPartitionWin() {
+		// entries put after the mount but before the cache is told about it
+		cache.detach();
+		PathInfo older = listedDirectory("/a/x");
+		cache.put("/a/x", older);
+		mounts.mount("/a", new InMemoryFileProvider(), 1);
+		PathInfo newer = listedDirectory("/a/x");
+		cache.put("/a/x", newer);
+
+		cache.repartition("/a");
+		assertSame(newer, cache.get("/a/x"));
+		assertEquals(1, cache.pathsWithin("/").size());
+		assertNull(older.children);
+	}
+
+	@Test
+	public void detachedCacheIgnoresMountChanges() {
+		cache.put("/a/x", listedDirectory("/a/x"));
+		cache.detach();
+
+		mounts.mount("/a", new InMemoryFileProvider(), 1);
+		assertNull(cache.get("/a/x"));
+	}
+}
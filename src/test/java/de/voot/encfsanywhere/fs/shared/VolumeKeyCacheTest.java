@@ -0,0 +1,92 @@
+/*
+  	Copyright (C) 2013 Marco Schulte
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.voot.encfsanywhere.fs.shared;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import de.voot.encfsanywhere.fs.shared.io.BytesInputStream;
+
+public class VolumeKeyCacheTest {
+
+	private static final long HOUR = 60 * 60 * 1000;
+
+	@Test
+	public void returnsCopyOfCachedKey() {
+		VolumeKeyCache cache = new VolumeKeyCache(HOUR);
+		byte[] key = new byte[] { 1, 2, 3 };
+		cache.put("/vol", "config", key);
+		key[0] = 9;
+
+		byte[] cached = cache.get("/vol", "config");
+		assertArrayEquals(new byte[] { 1, 2, 3 }, cached);
+		cached[1] = 9;
+		assertArrayEquals(new byte[] { 1, 2, 3 }, cache.get("/vol", "config"));
+	}
+
+	@Test
+	public void dropsKeyWhenConfigChanged() {
+		VolumeKeyCache cache = new VolumeKeyCache(HOUR);
+		cache.put("/vol", "config", new byte[] { 1 });
+
+		assertNull(cache.get("/vol", "other config"));
+		assertFalse(cache.contains("/vol"));
+		assertNull(cache.get("/vol", "config"));
+	}
+
+	@Test
+	public void expiredKeysAreNotReturned() {
+		VolumeKeyCache cache = new VolumeKeyCache(-1);
+		cache.put("/vol", "config", new byte[] { 1 });
+
+		assertFalse(cache.contains("/vol"));
+		assertNull(cache.get("/vol", "config"));
+	}
+
+	@Test
+	public void purgeKeepsLiveKeys() {
+		VolumeKeyCache cache = new VolumeKeyCache(HOUR);
+		cache.put("/vol", "config", new byte[] { 1 });
+
+		cache.purgeExpired();
+		assertTrue(cache.contains("/vol"));
+	}
+
+	@Test
+	public void clearForgetsAllKeys() {
+		VolumeKeyCache cache = new VolumeKeyCache(HOUR);
+		cache.put("/a", "config", new byte[] { 1 });
+		cache.put("/b", "config", new byte[] { 2 });
+
+		cache.clear();
+		assertFalse(cache.contains("/a"));
+		assertFalse(cache.contains("/b"));
+	}
+
+	@Test
+	public void readsWholeConfig() throws IOException {
+		byte[] config = "<?xml version=\"1.0\"?><boost_serialization/>".getBytes("UTF-8");
+		assertEquals(new String(config, "UTF-8"), VolumeKeyCache.readConfig(new BytesInputStream(config)));
+	}
+}
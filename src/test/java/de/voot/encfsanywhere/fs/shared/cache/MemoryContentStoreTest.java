@@ -0,0 +1,75 @@
+/*
+  	Copyright (C) 2013 Marco Schulte
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.voot.encfsanywhere.fs.shared.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class MemoryContentStoreTest {
+
+	@Test
+	public void returnsStoredContent() {
+		MemoryContentStore store = new MemoryContentStore(10);
+		store.put("a", new byte[] { 1, 2 });
+		assertArrayEquals(new byte[] { 1, 2 }, store.get("a"));
+		assertNull(store.get("b"));
+		assertEquals(2, store.getSize());
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedOverBudget() {
+		MemoryContentStore store = new MemoryContentStore(10);
+		store.put("a", new byte[4]);
+		store.put("b", new byte[4]);
+		store.get("a");
+		store.put("c", new byte[4]);
+
+		assertNotNull(store.get("a"));
+		assertNull(store.get("b"));
+		assertNotNull(store.get("c"));
+		assertEquals(8, store.getSize());
+		assertEquals(1, store.getEvictionCount());
+	}
+
+	@Test
+	public void skipsContentLargerThanBudget() {
+		MemoryContentStore store = new MemoryContentStore(10);
+		store.put("a", new byte[4]);
+		store.put("huge", new byte[11]);
+
+		assertNull(store.get("huge"));
+		assertNotNull(store.get("a"));
+		assertEquals(0, store.getEvictionCount());
+	}
+
+	@Test
+	public void replacingAndRemovingKeepSizeAccurate() {
+		MemoryContentStore store = new MemoryContentStore(10);
+		store.put("a", new byte[4]);
+		store.put("a", new byte[6]);
+		assertEquals(6, store.getSize());
+
+		store.remove("a");
+		store.remove("missing");
+		assertEquals(0, store.getSize());
+		assertEquals(0, store.getEvictionCount());
+	}
+}
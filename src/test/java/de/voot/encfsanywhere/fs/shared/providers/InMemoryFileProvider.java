@@ -0,0 +1,229 @@
+/*
+  	Copyright (C) 2013 Marco Schulte
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.voot.encfsanywhere.fs.shared.providers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.google.gwt.core.client.Callback;
+
+import de.voot.encfsanywhere.fs.shared.io.BytesInputStream;
+import de.voot.encfsanywhere.fs.shared.io.UploadSession;
+import de.voot.encfsgwt.shared.jre.InputStream;
+import de.voot.encfsgwt.shared.jre.OutputStream;
+import de.voot.encfsgwt.shared.mrpdaemon.EncFSFileInfo;
+
+/**
+ * Provider over an in-memory tree for tests. Calls back synchronously. Only
+ * reads and a few synchronous modifications are supported.
+ */
+public class InMemoryFileProvider implements FileProvider {
+
+	private final Map<String, EncFSFileInfo> entries = new TreeMap<String, EncFSFileInfo>();
+	private final Map<String, byte[]> contents = new TreeMap<String, byte[]>();
+	private final Set<String> failingListings = new HashSet<String>();
+	private final List<String> listed = new ArrayList<String>();
+
+	public InMemoryFileProvider() {
+		entries.put("/", info("/", true, 0, 0));
+	}
+
+	public InMemoryFileProvider addDirectory(String path) {
+		entries.put(path, info(path, true, 0, 0));
+		return this;
+	}
+
+	public InMemoryFileProvider addFile(String path, long size, long lastModified) {
+		entries.put(path, info(path, false, size, lastModified));
+		return this;
+	}
+
+	public InMemoryFileProvider addFile(String path, byte[] content) {
+		contents.put(path, content);
+		return addFile(path, content.length, 0);
+	}
+
+	/**
+	 * Lets listings of the directory fail from now on.
+	 * 
+	 * @param path
+	 */
+	public void failListing(String path) {
+		failingListings.add(path);
+	}
+
+	/**
+	 * Returns the directories listed so far, in order.
+	 * 
+	 * @return
+	 */
+	public List<String> getListed() {
+		return listed;
+	}
+
+	private static EncFSFileInfo info(String path, boolean isDirectory, long size, long lastModified) {
+		String name;
+		String parentPath;
+		if ("/".equals(path)) {
+			name = "/";
+			parentPath = "";
+		} else {
+			name = path.substring(path.lastIndexOf("/") + 1);
+			parentPath = path.substring(0, path.lastIndexOf("/") + 1);
+		}
+		return new EncFSFileInfo(name, parentPath, isDirectory, lastModified, size, true, true, false);
+	}
+
+	private static String parentOf(String path) {
+		String parent = path.substring(0, path.lastIndexOf("/"));
+		return parent.isEmpty() ? "/" : parent;
+	}
+
+	@Override
+	public void isDirectory(String srcPath, Callback<Boolean, IOException> callback) {
+		EncFSFileInfo info = entries.get(srcPath);
+		if (info == null) {
+			callback.onFailure(new IOException("Not found: " + srcPath));
+		} else {
+			callback.onSuccess(info.isDirectory());
+		}
+	}
+
+	@Override
+	public void exists(String srcPath, Callback<Boolean, IOException> callback) {
+		callback.onSuccess(entries.containsKey(srcPath));
+	}
+
+	@Override
+	public String getFilesystemRootPath() {
+		return "/";
+	}
+
+	@Override
+	public void getFileInfo(String srcPath, Callback<EncFSFileInfo, IOException> callback) {
+		EncFSFileInfo info = entries.get(srcPath);
+		if (info == null) {
+			callback.onFailure(new IOException("Not found: " + srcPath));
+		} else {
+			callback.onSuccess(info);
+		}
+	}
+
+	@Override
+	public void listFiles(String dirPath, Callback<List<EncFSFileInfo>, IOException> callback) {
+		listed.add(dirPath);
+		if (failingListings.contains(dirPath)) {
+			callback.onFailure(new IOException("Listing failed: " + dirPath));
+			return;
+		}
+		List<EncFSFileInfo> result = new ArrayList<EncFSFileInfo>();
+		for (Map.Entry<String, EncFSFileInfo> entry : entries.entrySet()) {
+			String path = entry.getKey();
+			if (!"/".equals(path) && parentOf(path).equals(dirPath)) {
+				result.add(entry.getValue());
+			}
+		}
+		callback.onSuccess(result);
+	}
+
+	@Override
+	public boolean move(String srcPath, String dstPath) throws IOException {
+		throw new IOException("Not supported");
+	}
+
+	@Override
+	public boolean delete(String srcPath) throws IOException {
+		contents.remove(srcPath);
+		return entries.remove(srcPath) != null;
+	}
+
+	@Override
+	public boolean mkdir(String dirPath) throws IOException {
+		addDirectory(dirPath);
+		return true;
+	}
+
+	@Override
+	public boolean mkdirs(String dirPath) throws IOException {
+		return mkdir(dirPath);
+	}
+
+	@Override
+	public EncFSFileInfo createFile(String dstFilePath) throws IOException {
+		addFile(dstFilePath, new byte[0]);
+		return entries.get(dstFilePath);
+	}
+
+	@Override
+	public boolean copy(String srcFilePath, String dstFilePath) throws IOException {
+		throw new IOException("Not supported");
+	}
+
+	@Override
+	public void openInputStream(String srcFilePath, Callback<InputStream, IOException> callback) {
+		byte[] content = contents.get(srcFilePath);
+		if (content == null) {
+			callback.onFailure(new IOException("Not found: " + srcFilePath));
+		} else {
+			callback.onSuccess(new BytesInputStream(content));
+		}
+	}
+
+	@Override
+	public OutputStream openOutputStream(String dstFilePath, long outputLength) throws IOException {
+		throw new IOException("Not supported");
+	}
+
+	@Override
+	public void disconnect() {
+	}
+
+	@Override
+	public UploadSession getUploadSession(String dstFilePath) {
+		return null;
+	}
+
+	@Override
+	public void move(String srcPath, String dstPath, Callback<EncFSFileInfo, IOException> callback) {
+		callback.onFailure(new IOException("Not supported"));
+	}
+
+	@Override
+	public void copy(String srcPath, String dstPath, Callback<EncFSFileInfo, IOException> callback) {
+		callback.onFailure(new IOException("Not supported"));
+	}
+
+	@Override
+	public void flush(Callback<Void, IOException> callback) {
+		callback.onSuccess(null);
+	}
+
+	@Override
+	public void getRevision(String srcFilePath, Callback<String, IOException> callback) {
+		EncFSFileInfo info = entries.get(srcFilePath);
+		if (info == null) {
+			callback.onFailure(new IOException("Not found: " + srcFilePath));
+		} else {
+			callback.onSuccess(String.valueOf(info.getLastModified()));
+		}
+	}
+}
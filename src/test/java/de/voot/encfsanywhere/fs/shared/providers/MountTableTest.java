@@ -0,0 +1,162 @@
+/*
+  	Copyright (C) 2013 Marco Schulte
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.voot.encfsanywhere.fs.shared.providers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gwt.core.client.Callback;
+
+import de.voot.encfsanywhere.fs.shared.Partitioner;
+import de.voot.encfsgwt.shared.mrpdaemon.EncFSFileInfo;
+
+public class MountTableTest {
+
+	private static class Result<T> implements Callback<T, IOException> {
+		T value;
+		IOException failure;
+
+		@Override
+		public void onFailure(IOException reason) {
+			failure = reason;
+		}
+
+		@Override
+		public void onSuccess(T result) {
+			value = result;
+		}
+	}
+
+	private MountTable table;
+	private InMemoryFileProvider rootProvider;
+	private InMemoryFileProvider dataProvider;
+	private InMemoryFileProvider archiveProvider;
+
+	@Before
+	public void setUp() {
+		rootProvider = new InMemoryFileProvider().addFile("/readme.txt", 1, 1);
+		dataProvider = new InMemoryFileProvider().addFile("/a.txt", 2, 2).addDirectory("/archive");
+		archiveProvider = new InMemoryFileProvider().addFile("/old.txt", 3, 3);
+		table = new MountTable();
+		table.mount("/", rootProvider, 1);
+		table.mount("/data", dataProvider, 1);
+		table.mount("/data/archive", archiveProvider, 1);
+	}
+
+	private EncFSFileInfo fileInfo(String path) {
+		Result<EncFSFileInfo> result = new Result<EncFSFileInfo>();
+		table.getFileInfo(path, result);
+		assertNotNull(result.value);
+		return result.value;
+	}
+
+	private List<String> list(String path) {
+		Result<List<EncFSFileInfo>> result = new Result<List<EncFSFileInfo>>();
+		table.listFiles(path, result);
+		assertNotNull(result.value);
+		List<String> paths = new ArrayList<String>();
+		for (EncFSFileInfo info : result.value) {
+			paths.add(info.getPath());
+		}
+		Collections.sort(paths);
+		return paths;
+	}
+
+	@Test
+	public void routesToLongestMountPoint() {
+		assertEquals(1, fileInfo("/readme.txt").getSize());
+		assertEquals(2, fileInfo("/data/a.txt").getSize());
+		assertEquals(3, fileInfo("/data/archive/old.txt").getSize());
+		assertEquals("/data/archive/old.txt", fileInfo("/data/archive/old.txt").getPath());
+	}
+
+	@Test
+	public void listsMountPointsWithinDirectories() {
+		List<String> root = list("/");
+		assertEquals(2, root.size());
+		assertEquals("/data", root.get(0));
+		assertEquals("/readme.txt", root.get(1));
+
+		List<String> data = list("/data");
+		assertEquals(2, data.size());
+		assertEquals("/data/a.txt", data.get(0));
+		assertEquals("/data/archive", data.get(1));
+	}
+
+	@Test
+	public void synthesizesDirectoriesLeadingToMountPoints() {
+		MountTable nested = new MountTable();
+		nested.mount("/mnt/dropbox", dataProvider, 1);
+
+		Result<EncFSFileInfo> mnt = new Result<EncFSFileInfo>();
+		nested.getFileInfo("/mnt", mnt);
+		assertTrue(mnt.value.isDirectory());
+
+		Result<List<EncFSFileInfo>> listed = new Result<List<EncFSFileInfo>>();
+		nested.listFiles("/mnt", listed);
+		assertEquals(1, listed.value.size());
+		assertEquals("/mnt/dropbox", listed.value.get(0).getPath());
+
+		Result<EncFSFileInfo> outside = new Result<EncFSFileInfo>();
+		nested.getFileInfo("/other", outside);
+		assertNotNull(outside.failure);
+	}
+
+	@Test
+	public void rejectsTransfersBetweenMounts() {
+		Result<EncFSFileInfo> moved = new Result<EncFSFileInfo>();
+		table.move("/readme.txt", "/data/readme.txt", moved);
+		assertNotNull(moved.failure);
+	}
+
+	@Test
+	public void routesAgainAfterUnmount() {
+		assertSame(archiveProvider, table.unmount("/data/archive"));
+		assertTrue(fileInfo("/data/archive").isDirectory());
+		assertEquals("/data", table.partitionFor("/data/archive/old.txt"));
+	}
+
+	@Test
+	public void notifiesListenersOfMountChanges() {
+		final List<String> repartitioned = new ArrayList<String>();
+		Partitioner.Listener listener = new Partitioner.Listener() {
+			@Override
+			public void onRepartitioned(String path) {
+				repartitioned.add(path);
+			}
+		};
+		table.addListener(listener);
+		table.mount("/backup", new InMemoryFileProvider(), 1);
+		table.unmount("/backup");
+		assertEquals(2, repartitioned.size());
+		assertEquals("/backup", repartitioned.get(0));
+
+		table.removeListener(listener);
+		table.mount("/backup", new InMemoryFileProvider(), 1);
+		assertEquals(2, repartitioned.size());
+	}
+}
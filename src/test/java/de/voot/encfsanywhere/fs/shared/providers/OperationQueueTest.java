@@ -0,0 +1,215 @@
+/*
+  	Copyright (C) 2013 Marco Schulte
+
+	This program is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	This program is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.voot.encfsanywhere.fs.shared.providers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gwt.core.client.Callback;
+
+import de.voot.encfsgwt.shared.mrpdaemon.EncFSFileInfo;
+
+public class OperationQueueTest {
+
+	/**
+	 * Records when it is run and completes when told to.
+	 */
+	private class PendingOperation implements OperationQueue.Operation {
+		final String name;
+		Callback<EncFSFileInfo, IOException> callback;
+
+		PendingOperation(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public void run(Callback<EncFSFileInfo, IOException> callback) {
+			started.add(name);
+			this.callback = callback;
+		}
+
+		void succeed() {
+			callback.onSuccess(null);
+		}
+
+		void fail(IOException reason) {
+			callback.onFailure(reason);
+		}
+	}
+
+	/**
+	 * Remembers the outcome reported to it.
+	 */
+	private static class Outcome<T> implements Callback<T, IOException> {
+		boolean succeeded;
+		IOException failure;
+
+		@Override
+		public void onFailure(IOException reason) {
+			failure = reason;
+		}
+
+		@Override
+		public void onSuccess(T result) {
+			succeeded = true;
+		}
+
+		boolean isDone() {
+			return succeeded || failure != null;
+		}
+	}
+
+	private OperationQueue queue;
+	private List<String> started;
+
+	@Before
+	public void setUp() {
+		queue = new OperationQueue();
+		started = new ArrayList<String>();
+	}
+
+	@Test
+	public void runsOperationsOneAfterAnotherInIssueOrder() {
+		PendingOperation first = new PendingOperation("first");
+		PendingOperation second = new PendingOperation("second");
+		queue.enqueue("first", first, null);
+		queue.enqueue("second", second, null);
+		assertEquals(1, started.size());
+
+		first.succeed();
+		assertEquals(2, started.size());
+		assertEquals("second", started.get(1));
+	}
+
+	@Test
+	public void flushWaitsForIssuedOperations() {
+		PendingOperation first = new PendingOperation("first");
+		queue.enqueue("first", first, null);
+		Outcome<Void> flushed = new Outcome<Void>();
+		queue.flush(flushed);
+		assertFalse(flushed.isDone());
+
+		first.succeed();
+		assertTrue(flushed.succeeded);
+	}
+
+	@Test
+	public void flushReportsFailureWithoutCallbackOnce() {
+		PendingOperation first = new PendingOperation("first");
+		queue.enqueue("first", first, null);
+		IOException reason = new IOException("gone");
+		first.fail(reason);
+
+		Outcome<Void> flushed = new Outcome<Void>();
+		queue.flush(flushed);
+		assertSame(reason, flushed.failure);
+
+		Outcome<Void> again = new Outcome<Void>();
+		queue.flush(again);
+		assertTrue(again.succeeded);
+	}
+
+	@Test
+	public void failureWithCallbackIsReportedThereOnly() {
+		PendingOperation first = new PendingOperation("first");
+		PendingOperation second = new PendingOperation("second");
+		Outcome<EncFSFileInfo> firstOutcome = new Outcome<EncFSFileInfo>();
+		queue.enqueue("first", first, firstOutcome);
+		queue.enqueue("second", second, null);
+		first.fail(new IOException("gone"));
+
+		assertNotNull(firstOutcome.failure);
+		assertEquals(2, started.size());
+		second.succeed();
+
+		Outcome<Void> flushed = new Outcome<Void>();
+		queue.flush(flushed);
+		assertTrue(flushed.succeeded);
+	}
+
+	@Test
+	public void skipsOperationsBehindFailureUpToNextFlush() {
+		PendingOperation first = new PendingOperation("first");
+		PendingOperation second = new PendingOperation("second");
+		Outcome<EncFSFileInfo> secondOutcome = new Outcome<EncFSFileInfo>();
+		queue.enqueue("first", first, null);
+		queue.enqueue("second", second, secondOutcome);
+		Outcome<Void> flushed = new Outcome<Void>();
+		queue.flush(flushed);
+		PendingOperation third = new PendingOperation("third");
+		queue.enqueue("third", third, null);
+
+		first.fail(new IOException("gone"));
+		assertNull(second.callback);
+		assertNotNull(secondOutcome.failure);
+		assertNotNull(flushed.failure);
+		assertEquals("third", started.get(started.size() - 1));
+	}
+
+	@Test
+	public void skipsOperationsIssuedAfterFailureBeforeFlush() {
+		PendingOperation first = new PendingOperation("first");
+		queue.enqueue("first", first, null);
+		first.fail(new IOException("gone"));
+
+		PendingOperation delete = new PendingOperation("delete");
+		queue.enqueue("delete", delete, null);
+		assertNull(delete.callback);
+
+		Outcome<Void> flushed = new Outcome<Void>();
+		queue.flush(flushed);
+		assertNotNull(flushed.failure);
+
+		PendingOperation after = new PendingOperation("after");
+		queue.enqueue("after", after, null);
+		assertEquals("after", started.get(started.size() - 1));
+	}
+
+	@Test
+	public void awaitIssuedLeavesFailuresToFlush() {
+		PendingOperation first = new PendingOperation("first");
+		queue.enqueue("first", first, null);
+		Outcome<Void> awaited = new Outcome<Void>();
+		queue.awaitIssued(awaited);
+		assertFalse(awaited.isDone());
+
+		first.fail(new IOException("gone"));
+		assertTrue(awaited.succeeded);
+
+		Outcome<Void> flushed = new Outcome<Void>();
+		queue.flush(flushed);
+		assertNotNull(flushed.failure);
+	}
+
+	@Test
+	public void awaitIssuedCallsBackImmediatelyWhenIdle() {
+		Outcome<Void> awaited = new Outcome<Void>();
+		queue.awaitIssued(awaited);
+		assertTrue(awaited.succeeded);
+	}
+}